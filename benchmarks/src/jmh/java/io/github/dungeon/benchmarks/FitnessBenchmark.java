@@ -0,0 +1,29 @@
+package io.github.dungeon.benchmarks;
+
+
+import io.github.dungeon.generator.algorithm.Fitness;
+import io.github.dungeon.generator.algorithm.TreeFeatures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+
+// uncached: the layout check runs on every call
+@BenchmarkMode(Mode.Throughput)
+public class FitnessBenchmark {
+
+    @Benchmark
+    public float fitness(TreeSamples samples) {
+        return Fitness.fitness(samples.next(), true, true);
+    }
+
+    // what the evolution loop runs, without converting from DungeonTree
+    @Benchmark
+    public float fitnessCompact(TreeSamples samples) {
+        return Fitness.fitness(TreeFeatures.of(samples.nextCompact()), true, true);
+    }
+
+    @Benchmark
+    public float quality(TreeSamples samples) {
+        return Fitness.fitness(samples.next(), true, false);
+    }
+}
@@ -0,0 +1,63 @@
+package io.github.dungeon.benchmarks;
+
+
+import io.github.dungeon.common.Coord;
+import io.github.dungeon.common.Rng;
+import io.github.dungeon.generator.grid.GridDefinition;
+import io.github.dungeon.generator.grid.GridGenerator;
+import io.github.dungeon.generator.room.Room;
+import io.github.dungeon.generator.room.RoomContents;
+import io.github.dungeon.generator.room.RoomPopulator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@BenchmarkMode(Mode.Throughput)
+public class GridBenchmark {
+
+    // rooms of the size GridGenerator makes, from empty and safe to full of enemies and treasure
+    @State(Scope.Thread)
+    public static class Rooms {
+        static final int SAMPLES = 16;
+
+        Room[] rooms;
+        Rng rng;
+        private int index;
+
+        @Setup(Level.Trial)
+        public void generate() {
+            Rng roomRng = new Rng(TreeSamples.SEED);
+            rooms = new Room[SAMPLES];
+            for (int i = 0; i < SAMPLES; i++) {
+                Room room = new Room(0, 0, 10, 8, roomRng.nextFloat(), roomRng.nextFloat());
+                room.setEntrance(new Coord(room.getLeft() + 4, room.getTop()));
+                room.getExits().add(new Coord(room.getLeft() + 3, (int) room.getEnd().getY() - 1));
+                rooms[i] = room;
+            }
+        }
+
+        @Setup(Level.Iteration)
+        public void reseed() {
+            rng = new Rng(TreeSamples.SEED);
+            index = 0;
+        }
+
+        Room next() {
+            return rooms[index++ % rooms.length];
+        }
+    }
+
+    @Benchmark
+    public GridDefinition generate(TreeSamples samples) {
+        return GridGenerator.generate(samples.nextLayoutable(), TreeSamples.LAYOUT_RETRIES, samples.rng);
+    }
+
+    @Benchmark
+    public RoomContents populate(Rooms rooms) {
+        return RoomPopulator.populate(rooms.next(), rooms.rng);
+    }
+}
@@ -0,0 +1,23 @@
+package io.github.dungeon.benchmarks;
+
+
+import io.github.dungeon.generator.layout.LayoutField;
+import io.github.dungeon.generator.layout.LayoutGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+
+@BenchmarkMode(Mode.Throughput)
+public class LayoutBenchmark {
+
+    @Benchmark
+    public LayoutField[][] generateLayout(TreeSamples samples) {
+        return LayoutGenerator.generateLayout(samples.nextLayoutable(), TreeSamples.LAYOUT_RETRIES, samples.rng);
+    }
+
+    // what the fitness function does, on all trees including the ones without a layout
+    @Benchmark
+    public int countSuccessfulAttempts(TreeSamples samples) {
+        return LayoutGenerator.countSuccessfulAttempts(samples.next(), 5, samples.rng);
+    }
+}
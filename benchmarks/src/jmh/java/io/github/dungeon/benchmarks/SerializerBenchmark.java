@@ -0,0 +1,79 @@
+package io.github.dungeon.benchmarks;
+
+
+import io.github.dungeon.generator.tree.DungeonTree;
+import io.github.dungeon.generator.tree.DungeonTreeSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+@BenchmarkMode(Mode.Throughput)
+public class SerializerBenchmark {
+
+    // one written file per sample tree, read back by the read benchmark
+    @State(Scope.Thread)
+    public static class SerializedTrees {
+        // Constants.MIN_DEPTH .. Constants.MAX_DEPTH
+        @Param({"2", "3", "4", "5"})
+        public int depth;
+
+        DungeonTree[] trees;
+        File dir;
+        File[] written;
+        File output;
+        private int index;
+
+        @Setup(Level.Trial)
+        public void write() throws IOException {
+            trees = TreeSamples.sampleTrees(depth);
+            dir = Files.createTempDirectory("dungeon-bench").toFile();
+            written = new File[trees.length];
+            for (int i = 0; i < written.length; i++) {
+                written[i] = new File(dir, "tree_" + i + ".json");
+                DungeonTreeSerializer.writeToFile(trees[i], 0.5f, written[i]);
+            }
+            output = new File(dir, "out.json");
+        }
+
+        @Setup(Level.Iteration)
+        public void rewind() {
+            index = 0;
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            dir.delete();
+        }
+
+        int next() {
+            return index++ % trees.length;
+        }
+    }
+
+    @Benchmark
+    public File write(SerializedTrees serialized) throws IOException {
+        DungeonTreeSerializer.writeToFile(serialized.trees[serialized.next()], 0.5f, serialized.output);
+        return serialized.output;
+    }
+
+    @Benchmark
+    public DungeonTree read(SerializedTrees serialized) throws IOException {
+        return DungeonTreeSerializer.readFromFile(serialized.written[serialized.next()]);
+    }
+}
@@ -0,0 +1,32 @@
+package io.github.dungeon.benchmarks;
+
+
+import io.github.dungeon.generator.tree.CompactTree;
+import io.github.dungeon.generator.tree.DungeonTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+
+@BenchmarkMode(Mode.Throughput)
+public class TreeBenchmark {
+
+    @Benchmark
+    public DungeonTree generateRandomTree(TreeSamples samples) {
+        return TreeSamples.randomTree(samples.depth, samples.rng);
+    }
+
+    @Benchmark
+    public DungeonTree deepCopy(TreeSamples samples) {
+        return samples.next().deepCopy();
+    }
+
+    @Benchmark
+    public CompactTree compactCopy(TreeSamples samples) {
+        return samples.nextCompact().copy();
+    }
+
+    @Benchmark
+    public CompactTree toCompact(TreeSamples samples) {
+        return CompactTree.of(samples.next());
+    }
+}
@@ -0,0 +1,101 @@
+package io.github.dungeon.benchmarks;
+
+
+import io.github.dungeon.common.Constants;
+import io.github.dungeon.common.Rng;
+import io.github.dungeon.generator.layout.LayoutGenerator;
+import io.github.dungeon.generator.tree.CompactTree;
+import io.github.dungeon.generator.tree.DungeonTree;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed-seed trees of one depth, shared by all benchmarks of the pipeline.
+ * Benchmarks cycle through the samples, so one unlucky tree doesn't decide the score.
+ */
+@State(Scope.Thread)
+public class TreeSamples {
+    static final long SEED = 42L;
+    static final int SAMPLES = 64;
+    static final int LAYOUT_RETRIES = 20;
+    static final float BRANCHING_FACTOR = 0.6f;
+    static final float BRANCHING_FACTOR_MULTIPLIER = 0.9f;
+
+    // Constants.MIN_DEPTH .. Constants.MAX_DEPTH
+    @Param({"2", "3", "4", "5"})
+    public int depth;
+
+    DungeonTree[] trees;
+    // the same trees in the representation the evolution loop uses
+    CompactTree[] compactTrees;
+    // the subset that has a layout - for the stages after layout generation
+    DungeonTree[] layoutable;
+    Rng rng;
+    private int index;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        trees = sampleTrees(depth);
+        compactTrees = new CompactTree[trees.length];
+        for (int i = 0; i < trees.length; i++) {
+            compactTrees[i] = CompactTree.of(trees[i]);
+        }
+        List<DungeonTree> withLayout = new ArrayList<>();
+        for (DungeonTree tree : trees) {
+            try {
+                LayoutGenerator.generateLayout(tree, LAYOUT_RETRIES, new Rng(SEED));
+                withLayout.add(tree);
+            } catch (IllegalArgumentException e) {
+                // no layout - only used by the tree and fitness benchmarks
+            }
+        }
+        if (withLayout.isEmpty()) {
+            throw new IllegalStateException("No tree of depth " + depth + " has a layout");
+        }
+        layoutable = withLayout.toArray(new DungeonTree[0]);
+    }
+
+    // every iteration sees the same sequence of samples and random numbers
+    @Setup(Level.Iteration)
+    public void reseed() {
+        rng = new Rng(SEED);
+        index = 0;
+    }
+
+    // the same trees for every benchmark and every run
+    static DungeonTree[] sampleTrees(int depth) {
+        if (depth < Constants.MIN_DEPTH || depth > Constants.MAX_DEPTH) {
+            throw new IllegalArgumentException("Depth must be between " + Constants.MIN_DEPTH + " and " + Constants.MAX_DEPTH);
+        }
+        Rng rng = new Rng(SEED + depth);
+        DungeonTree[] trees = new DungeonTree[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            trees[i] = randomTree(depth, rng);
+        }
+        return trees;
+    }
+
+    static DungeonTree randomTree(int depth, Rng rng) {
+        DungeonTree tree = new DungeonTree();
+        tree.generateRandomTree(depth, BRANCHING_FACTOR, BRANCHING_FACTOR_MULTIPLIER, rng);
+        return tree;
+    }
+
+    DungeonTree next() {
+        return trees[index++ % trees.length];
+    }
+
+    CompactTree nextCompact() {
+        return compactTrees[index++ % compactTrees.length];
+    }
+
+    DungeonTree nextLayoutable() {
+        return layoutable[index++ % layoutable.length];
+    }
+}
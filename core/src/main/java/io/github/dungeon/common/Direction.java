@@ -44,15 +44,17 @@ public enum Direction implements Move {
         throw new IllegalArgumentException("Unknown direction: " + s);
     }
 
-    public static Direction randomDirection() {
+    public static Direction randomDirection(Rng rng) {
         Direction[] directions = values();
-        int index = (int) (Math.random() * directions.length);
+        int index = rng.nextInt(directions.length);
         return directions[index];
     }
 
-    public static List<Direction> shuffledDirections() {
+    public static List<Direction> shuffledDirections(Rng rng) {
         List<Direction> directions = new ArrayList<>(Arrays.asList(values()));
-        java.util.Collections.shuffle(directions);
+        for (int i = directions.size() - 1; i > 0; i--) {
+            java.util.Collections.swap(directions, i, rng.nextInt(i + 1));
+        }
         return directions;
     }
 
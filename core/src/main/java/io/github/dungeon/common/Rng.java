@@ -0,0 +1,76 @@
+package io.github.dungeon.common;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
+
+/**
+ * Seedable SplitMix64 generator (same algorithm as java.util.SplittableRandom), passed explicitly through the generator.
+ * Not thread safe - a worker that needs randomness gets its own stream from split(), so no state is shared between threads.
+ * The whole state is two longs, so a run can be stored and resumed exactly.
+ */
+public final class Rng implements RandomGenerator {
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private long seed;
+    private final long gamma;
+
+    public Rng(long seed) {
+        this(seed, GOLDEN_GAMMA);
+    }
+
+    // unseeded - for callers that don't care about reproducibility
+    public Rng() {
+        this(ThreadLocalRandom.current().nextLong());
+    }
+
+    private Rng(long seed, long gamma) {
+        this.seed = seed;
+        this.gamma = gamma;
+    }
+
+    // restores a generator from getSeed() and getGamma()
+    public static Rng fromState(long seed, long gamma) {
+        if ((gamma & 1L) == 0) {
+            throw new IllegalArgumentException("Gamma must be odd");
+        }
+        return new Rng(seed, gamma);
+    }
+
+    // ------------------ mixing ------------------
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static long mixGamma(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        z = (z ^ (z >>> 33)) | 1L;
+        int n = Long.bitCount(z ^ (z >>> 1));
+        return n < 24 ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+    }
+
+    private long nextSeed() {
+        return seed += gamma;
+    }
+
+    // ------------------ API ------------------
+    @Override
+    public long nextLong() {
+        return mix64(nextSeed());
+    }
+
+    // independent stream for another worker; advances this generator, so splits are reproducible too
+    public Rng split() {
+        return new Rng(nextLong(), mixGamma(nextSeed()));
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public long getGamma() {
+        return gamma;
+    }
+}
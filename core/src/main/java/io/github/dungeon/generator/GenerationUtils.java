@@ -1,72 +1,79 @@
 package io.github.dungeon.generator;
 
 
+import io.github.dungeon.common.Rng;
 import io.github.dungeon.generator.algorithm.MapElites;
 import io.github.dungeon.generator.algorithm.MapElitesArchive;
 import io.github.dungeon.generator.grid.GridDefinition;
 import io.github.dungeon.generator.grid.GridGenerator;
 import io.github.dungeon.generator.tree.DungeonTree;
 
-import java.util.Random;
-
 public final class GenerationUtils {
     static final int MAX_RETRIES = 20;
 
     public static GridDefinition generateFromFile(String dirName, int x, int y) {
-        return GridGenerator.generate(dirName, x, y, 100);
+        return GridGenerator.generate(dirName, x, y, 100, new Rng());
     }
 
+    // a random occupied cell of the archive, whatever its size
     public static GridDefinition generateFromFolder(String dirName) {
-        Random rand = new Random();
-        int x = rand.nextInt(0, 10);
-        int y = rand.nextInt(0, 10);
-        return GridGenerator.generate(dirName, x, y, MAX_RETRIES);
+        return GridGenerator.generateRandom(dirName, MAX_RETRIES, new Rng());
     }
 
     public static GridDefinition runAndGenerate(int numGenerations) {
-         MapElitesArchive res = MapElites.run(numGenerations);
-         DungeonTree tree = res.getRandomGoodTree();
-         return GridGenerator.generate(tree, MAX_RETRIES);
+         return runAndGenerate(numGenerations, new Rng());
+    }
+
+    // the same seed gives the same archive, tree and grid
+    public static GridDefinition runAndGenerate(int numGenerations, Rng rng) {
+         MapElitesArchive res = MapElites.run(numGenerations, rng);
+         DungeonTree tree = res.getRandomGoodTree(rng);
+         return GridGenerator.generate(tree, MAX_RETRIES, rng);
     }
 
     public static GridDefinition runAndGenerate(int numGenerations, int x, int y) {
-         MapElitesArchive res = MapElites.run(numGenerations);
+         Rng rng = new Rng();
+         MapElitesArchive res = MapElites.run(numGenerations, rng);
          DungeonTree tree = res.getTreeAt(x, y);
-         return GridGenerator.generate(tree, MAX_RETRIES);
+         return GridGenerator.generate(tree, MAX_RETRIES, rng);
     }
 
     public static GridDefinition runSaveAndGenerate(int numGenerations) {
-         MapElitesArchive res = MapElites.run(numGenerations);
+         Rng rng = new Rng();
+         MapElitesArchive res = MapElites.run(numGenerations, rng);
          res.serializeArchive(numGenerations);
-         DungeonTree tree = res.getRandomGoodTree();
-         GridDefinition gridDefinition = GridGenerator.generate(tree, MAX_RETRIES);
+         DungeonTree tree = res.getRandomGoodTree(rng);
+         GridDefinition gridDefinition = GridGenerator.generate(tree, MAX_RETRIES, rng);
          return gridDefinition;
     }
 
     public static GridDefinition runSaveAndGenerate(int numGenerations, int x, int y) {
-        MapElitesArchive res = MapElites.run(numGenerations);
+        Rng rng = new Rng();
+        MapElitesArchive res = MapElites.run(numGenerations, rng);
         res.serializeArchive(numGenerations);
         DungeonTree tree = res.getTreeAt(x, y);
-        GridDefinition gridDefinition = GridGenerator.generate(tree, MAX_RETRIES);
+        GridDefinition gridDefinition = GridGenerator.generate(tree, MAX_RETRIES, rng);
         return gridDefinition;
     }
 
     public static GridDefinition generateFromTree(DungeonTree tree) {
-        return GridGenerator.generate(tree, MAX_RETRIES);
+        return GridGenerator.generate(tree, MAX_RETRIES, new Rng());
     }
 
     public static GridDefinition generateRandomTree(int depth, float branchFact, float branchFactMult) {
+        Rng rng = new Rng();
         DungeonTree dungeonTree = new DungeonTree();
-        dungeonTree.generateRandomTree(depth, branchFact, branchFactMult);
-        return GridGenerator.generate(dungeonTree, 10);
+        dungeonTree.generateRandomTree(depth, branchFact, branchFactMult, rng);
+        return GridGenerator.generate(dungeonTree, 10, rng);
     }
 
     public static GridDefinition debugSerialization(int numGenerations, int x, int y) {
-        MapElitesArchive res = MapElites.run(numGenerations);
+        Rng rng = new Rng();
+        MapElitesArchive res = MapElites.run(numGenerations, rng);
         String dirName = res.serializeArchive(numGenerations);
         // get tree directly from archive
         DungeonTree tree = res.getTreeAt(x, y);
-        GridDefinition gridDefinition = GridGenerator.generate(tree, MAX_RETRIES);
+        GridDefinition gridDefinition = GridGenerator.generate(tree, MAX_RETRIES, rng);
         // get tree from saved files
 //        GridDefinition gridDefinition2 = GeneratorFromLayout.generate(dirName, x, y);
         return gridDefinition;
@@ -0,0 +1,208 @@
+package io.github.dungeon.generator;
+
+
+import io.github.dungeon.generator.grid.GridDefinition;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Levels generated ahead of time by background threads, so switching to a new level only dequeues a ready
+ * GridDefinition instead of laying out and populating a dungeon on the render thread. Workers keep up to
+ * capacity levels ready and block while the queue is full. A failed generation is counted and retried; a worker
+ * gives up after many failures in a row, and once every worker has, take() and poll() throw instead of waiting forever.
+ */
+public final class LevelQueue implements AutoCloseable {
+    // e.g. a folder without levels, so retrying won't help
+    private static final int MAX_CONSECUTIVE_FAILURES = 50;
+    private static final long FAILURE_CHECK_MILLIS = 100;
+
+    private final Supplier<GridDefinition> generator;
+    private final BlockingQueue<GridDefinition> ready;
+    private final Thread[] workers;
+    private volatile boolean closed = false;
+    private final AtomicInteger running;
+    // why the last worker gave up
+    private volatile RuntimeException failure = null;
+
+    private final LongAdder generated = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder generationNanos = new LongAdder();
+    private final AtomicLong maxGenerationNanos = new AtomicLong();
+    private final LongAdder taken = new LongAdder();
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+
+    public LevelQueue(Supplier<GridDefinition> generator, int capacity, int workersNum) {
+        if (capacity < 1 || workersNum < 1) {
+            throw new IllegalArgumentException("Level queue needs at least one slot and one worker");
+        }
+        this.generator = generator;
+        this.ready = new ArrayBlockingQueue<>(capacity);
+        this.workers = new Thread[workersNum];
+        this.running = new AtomicInteger(workersNum);
+        for (int i = 0; i < workersNum; i++) {
+            workers[i] = new Thread(this::work, "level-generator-" + i);
+            // never keeps the game from exiting
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    // levels from random cells of an archive folder under levels/
+    public static LevelQueue fromFolder(String dirName, int capacity, int workersNum) {
+        return new LevelQueue(() -> GenerationUtils.generateFromFolder(dirName), capacity, workersNum);
+    }
+
+    private void work() {
+        try {
+            produce();
+        } finally {
+            running.decrementAndGet();
+        }
+    }
+
+    private void produce() {
+        int failures = 0;
+        while (!closed) {
+            long start = System.nanoTime();
+            GridDefinition level;
+            try {
+                level = generator.get();
+            } catch (RuntimeException e) {
+                failed.increment();
+                if (++failures >= MAX_CONSECUTIVE_FAILURES) {
+                    failure = e;
+                    return;
+                }
+                continue;
+            }
+            failures = 0;
+            long nanos = System.nanoTime() - start;
+            generated.increment();
+            generationNanos.add(nanos);
+            maxGenerationNanos.accumulateAndGet(nanos, Math::max);
+
+            try {
+                ready.put(level);
+            } catch (InterruptedException e) {
+                // closed
+                return;
+            }
+        }
+    }
+
+    // ------------------ API ------------------
+    // a ready level, waiting for one only if the workers fell behind
+    public GridDefinition take() {
+        if (closed) {
+            throw new IllegalStateException("Level queue is closed");
+        }
+        GridDefinition level = ready.poll();
+        if (level == null) {
+            waits.increment();
+            long start = System.nanoTime();
+            try {
+                while (level == null) {
+                    checkWorkers();
+                    level = ready.poll(FAILURE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for a level", e);
+            } finally {
+                waitNanos.add(System.nanoTime() - start);
+            }
+        }
+        taken.increment();
+        return level;
+    }
+
+    // a ready level, or null without waiting
+    public GridDefinition poll() {
+        GridDefinition level = ready.poll();
+        if (level == null) {
+            checkWorkers();
+            return null;
+        }
+        taken.increment();
+        return level;
+    }
+
+    // no level will ever come once every worker has given up
+    private void checkWorkers() {
+        if (running.get() == 0 && ready.isEmpty()) {
+            throw new RuntimeException("Failed to generate levels", failure);
+        }
+    }
+
+    // levels ready right now
+    public int depth() {
+        return ready.size();
+    }
+
+    public int capacity() {
+        return ready.size() + ready.remainingCapacity();
+    }
+
+    public long getGenerated() {
+        return generated.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public double averageGenerationMillis() {
+        long count = getGenerated();
+        return count == 0 ? 0 : generationNanos.sum() / 1e6 / count;
+    }
+
+    public double maxGenerationMillis() {
+        return maxGenerationNanos.get() / 1e6;
+    }
+
+    // how many take() calls found the queue empty, and how long they waited in total
+    public long getWaits() {
+        return waits.sum();
+    }
+
+    public double waitMillis() {
+        return waitNanos.sum() / 1e6;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        ready.clear();
+    }
+
+    public void printStats() {
+        System.out.printf("Level queue: %d / %d ready, %d generated (%.1f ms avg, %.1f ms max), %d failed, "
+                        + "%d taken, %d waited %.1f ms%n",
+                depth(), capacity(), getGenerated(), averageGenerationMillis(), maxGenerationMillis(), getFailed(),
+                taken.sum(), getWaits(), waitMillis());
+    }
+
+    // -------- test --------
+    public static void main(String[] args) throws InterruptedException {
+        try (LevelQueue levels = fromFolder("202604111244", 3, 2)) {
+            for (int i = 0; i < 10; i++) {
+                long start = System.nanoTime();
+                levels.take();
+                System.out.printf("Level %d in %.2f ms%n", i, (System.nanoTime() - start) / 1e6);
+                // playing the level
+                Thread.sleep(500);
+            }
+            levels.printStats();
+        }
+    }
+}
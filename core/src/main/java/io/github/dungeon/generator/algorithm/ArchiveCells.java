@@ -0,0 +1,21 @@
+package io.github.dungeon.generator.algorithm;
+
+
+import io.github.dungeon.common.Rng;
+
+/**
+ * How MapElitesArchive splits the descriptor space into cells. Cells are numbered 0 to cellCount() - 1,
+ * so the archive itself is a flat array no matter how many descriptors there are.
+ * Implementations are immutable and shared by every thread evaluating into the archive.
+ */
+public interface ArchiveCells {
+    int dimensions();
+
+    int cellCount();
+
+    // cell of a descriptor vector with every coordinate in [0, 1]
+    int cellOf(float[] point);
+
+    // uniform over cells
+    int randomCell(Rng rng);
+}
@@ -0,0 +1,19 @@
+package io.github.dungeon.generator.algorithm;
+
+
+import io.github.dungeon.generator.tree.CompactTree;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+// an elite of MapElitesArchive
+@Data
+@AllArgsConstructor
+class ArchiveRecord {
+    // kept so offspring can update them instead of traversing (see TreeEdit)
+    TreeFeatures features;
+    float fitness;
+
+    CompactTree getTree() {
+        return features.getTree();
+    }
+}
@@ -0,0 +1,180 @@
+package io.github.dungeon.generator.algorithm;
+
+
+import io.github.dungeon.common.Rng;
+import io.github.dungeon.generator.tree.CompactTree;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Everything a MapElites run needs to continue exactly where it stopped: generation counters, the random
+ * generator state, and the archive with its selection state. Taking one only copies references and small arrays -
+ * elites are never modified once in the archive - so the slow part, write(), can run on another thread.
+ * The file is replaced atomically, so a crash while writing leaves the previous checkpoint intact.
+ */
+final class Checkpoint {
+    static final String FILE_NAME = "checkpoint.bin";
+    private static final int MAGIC = 0x4D45434B; // MECK
+    private static final int VERSION = 1;
+
+    final int generationsDone;
+    final int generationsTotal;
+    final int interval;
+    final long rngSeed;
+    final long rngGamma;
+    final int cellCount;
+    final EliteSampler.State sampler;
+    // records[i] is the elite of sampler.cells[i]
+    final ArchiveRecord[] records;
+
+    private Checkpoint(
+            int generationsDone, int generationsTotal, int interval,
+            long rngSeed, long rngGamma,
+            int cellCount, EliteSampler.State sampler, ArchiveRecord[] records
+    ) {
+        this.generationsDone = generationsDone;
+        this.generationsTotal = generationsTotal;
+        this.interval = interval;
+        this.rngSeed = rngSeed;
+        this.rngGamma = rngGamma;
+        this.cellCount = cellCount;
+        this.sampler = sampler;
+        this.records = records;
+    }
+
+    // call between generations, on the thread that evolves the archive
+    static Checkpoint of(MapElitesArchive archive, int generationsDone, int generationsTotal, int interval, Rng rng) {
+        EliteSampler.State sampler = archive.samplerState();
+        ArchiveRecord[] records = new ArchiveRecord[sampler.cells.length];
+        for (int i = 0; i < records.length; i++) {
+            records[i] = archive.getRecord(sampler.cells[i]);
+        }
+        return new Checkpoint(
+                generationsDone, generationsTotal, interval,
+                rng.getSeed(), rng.getGamma(),
+                archive.cellCount(), sampler, records
+        );
+    }
+
+    Rng rng() {
+        return Rng.fromState(rngSeed, rngGamma);
+    }
+
+    void restore(MapElitesArchive archive) {
+        if (archive.cellCount() != cellCount) {
+            throw new IllegalStateException("Checkpoint has " + cellCount + " cells, archive " + archive.cellCount());
+        }
+        archive.restore(sampler, records);
+    }
+
+    // ------------------ file ------------------
+    void write(File dir) {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new RuntimeException("Cannot create directory: " + dir);
+        }
+        File target = new File(dir, FILE_NAME);
+        File temp = new File(dir, FILE_NAME + ".tmp");
+        try {
+            try (FileOutputStream file = new FileOutputStream(temp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+                writeTo(out);
+                out.flush();
+                file.getFD().sync();
+            }
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write " + target.getAbsolutePath(), e);
+        }
+    }
+
+    private void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(generationsDone);
+        out.writeInt(generationsTotal);
+        out.writeInt(interval);
+        out.writeLong(rngSeed);
+        out.writeLong(rngGamma);
+        out.writeInt(cellCount);
+
+        out.writeUTF(sampler.selection.name());
+        out.writeInt(records.length);
+        for (int i = 0; i < records.length; i++) {
+            out.writeInt(sampler.cells[i]);
+            out.writeFloat(records[i].getFitness());
+            records[i].getTree().write(out);
+        }
+        if (sampler.weights != null) {
+            for (int i = 0; i < records.length; i++) {
+                out.writeFloat(sampler.weights[i]);
+            }
+            out.writeInt(sampler.tree.length);
+            for (double sum : sampler.tree) {
+                out.writeDouble(sum);
+            }
+        }
+        if (sampler.curiosity != null) {
+            for (int i = 0; i < records.length; i++) {
+                out.writeFloat(sampler.curiosity[i]);
+            }
+        }
+    }
+
+    static Checkpoint read(File dir) {
+        File file = new File(dir, FILE_NAME);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a checkpoint of this version");
+            }
+            int generationsDone = in.readInt();
+            int generationsTotal = in.readInt();
+            int interval = in.readInt();
+            long rngSeed = in.readLong();
+            long rngGamma = in.readLong();
+            int cellCount = in.readInt();
+
+            Selection selection = Selection.valueOf(in.readUTF());
+            int count = in.readInt();
+            int[] cells = new int[count];
+            ArchiveRecord[] records = new ArchiveRecord[count];
+            for (int i = 0; i < count; i++) {
+                cells[i] = in.readInt();
+                float fitness = in.readFloat();
+                records[i] = new ArchiveRecord(TreeFeatures.of(CompactTree.read(in)), fitness);
+            }
+            float[] weights = null;
+            double[] tree = null;
+            if (selection != Selection.UNIFORM) {
+                weights = new float[count];
+                for (int i = 0; i < count; i++) {
+                    weights[i] = in.readFloat();
+                }
+                tree = new double[in.readInt()];
+                for (int i = 0; i < tree.length; i++) {
+                    tree[i] = in.readDouble();
+                }
+            }
+            float[] curiosity = null;
+            if (selection == Selection.CURIOSITY) {
+                curiosity = new float[count];
+                for (int i = 0; i < count; i++) {
+                    curiosity[i] = in.readFloat();
+                }
+            }
+
+            EliteSampler.State sampler = new EliteSampler.State(selection, cells, weights, curiosity, tree);
+            return new Checkpoint(generationsDone, generationsTotal, interval, rngSeed, rngGamma, cellCount, sampler, records);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read " + file.getAbsolutePath(), e);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package io.github.dungeon.generator.algorithm;
+
+
+import io.github.dungeon.common.Rng;
+
+import java.util.Arrays;
+
+/**
+ * Centroidal Voronoi tessellation of the unit cube: every cell is the region closest to one centroid.
+ * Unlike a grid the cell count doesn't grow exponentially with the number of descriptors, so 4 to 6 of them
+ * still fit in a few thousand cells. Centroids come from Lloyd's algorithm on uniform samples, and a point
+ * is mapped to its cell with a k-d tree over them, so a lookup is logarithmic in the cell count.
+ * The same dimensions, cell count and seed give the same centroids.
+ */
+public final class CvtCells implements ArchiveCells {
+    private static final int SAMPLES_PER_CELL = 25;
+    private static final int MIN_SAMPLES = 10_000;
+    private static final int ITERATIONS = 10;
+
+    private final int dimensions;
+    private final int cellCount;
+    private final float[] centroids;
+    private final KdTree lookup;
+
+    public CvtCells(int dimensions, int cellCount, Rng rng) {
+        if (dimensions < 1 || cellCount < 1) {
+            throw new IllegalArgumentException("CVT needs at least one dimension and one cell");
+        }
+        this.dimensions = dimensions;
+        this.cellCount = cellCount;
+
+        int samplesNum = Math.max(MIN_SAMPLES, SAMPLES_PER_CELL * cellCount);
+        float[] samples = new float[samplesNum * dimensions];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = rng.nextFloat();
+        }
+        centroids = lloyd(samples, Arrays.copyOf(samples, cellCount * dimensions));
+        lookup = new KdTree(centroids, dimensions);
+    }
+
+    // moves every centroid to the mean of the samples closest to it; one without samples stays where it is
+    private float[] lloyd(float[] samples, float[] centroids) {
+        double[] sums = new double[centroids.length];
+        int[] counts = new int[cellCount];
+        // centroids move less every iteration, so the last cell of a sample is a good hint for the next one
+        int[] assigned = new int[samples.length / dimensions];
+        Arrays.fill(assigned, -1);
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            KdTree tree = new KdTree(centroids, dimensions);
+            Arrays.fill(sums, 0.0);
+            Arrays.fill(counts, 0);
+            for (int sample = 0; sample < assigned.length; sample++) {
+                int offset = sample * dimensions;
+                int cell = tree.nearest(samples, offset, assigned[sample]);
+                assigned[sample] = cell;
+                counts[cell]++;
+                for (int d = 0; d < dimensions; d++) {
+                    sums[cell * dimensions + d] += samples[offset + d];
+                }
+            }
+            for (int cell = 0; cell < cellCount; cell++) {
+                if (counts[cell] == 0) continue;
+                for (int d = 0; d < dimensions; d++) {
+                    centroids[cell * dimensions + d] = (float) (sums[cell * dimensions + d] / counts[cell]);
+                }
+            }
+        }
+        return centroids;
+    }
+
+    // ------------------ API ------------------
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    @Override
+    public int cellCount() {
+        return cellCount;
+    }
+
+    @Override
+    public int cellOf(float[] point) {
+        return lookup.nearest(point);
+    }
+
+    @Override
+    public int randomCell(Rng rng) {
+        return rng.nextInt(cellCount);
+    }
+
+    public float centroid(int cell, int dimension) {
+        return centroids[cell * dimensions + dimension];
+    }
+
+    @Override
+    public String toString() {
+        return "CVT " + cellCount + " cells in " + dimensions + "D";
+    }
+}
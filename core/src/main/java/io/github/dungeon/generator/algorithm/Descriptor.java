@@ -0,0 +1,26 @@
+package io.github.dungeon.generator.algorithm;
+
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.function.Function;
+
+// one behaviour axis of the archive: a feature of the tree and the range the archive covers
+@Getter
+@AllArgsConstructor
+public final class Descriptor {
+    private final String name;
+    private final Function<TreeFeatures, Float> function;
+    private final float min;
+    private final float max;
+
+    // the value scaled to [0, 1], -1 if it's outside the range
+    float normalize(TreeFeatures features) {
+        float value = function.apply(features);
+        if (value < min || value > max) {
+            return -1f;
+        }
+        return (value - min) / (max - min);
+    }
+}
@@ -0,0 +1,192 @@
+package io.github.dungeon.generator.algorithm;
+
+
+import io.github.dungeon.common.Rng;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Occupied cells of a MapElitesArchive as a dense list in the order they were filled, so a random elite is
+ * one draw instead of probing empty cells. Weighted selections also keep a Fenwick tree of weights by list position.
+ * Cells are only ever added, under the lock; uniform selection reads without it, as count is published last.
+ */
+final class EliteSampler {
+    private static final float CURIOSITY_SUCCESS = 1f;
+    private static final float CURIOSITY_FAILURE = -0.5f;
+    // an elite whose offspring keep failing stays selectable, just rarely
+    private static final float MIN_CURIOSITY_WEIGHT = 0.05f;
+
+    private final Selection selection;
+    private final AtomicReferenceArray<ArchiveRecord> records;
+    private final int[] cells;
+    // position of every cell in cells, -1 while it's empty
+    private final int[] positions;
+    private volatile int count = 0;
+
+    // by position, null for uniform selection; tree is 1-based
+    private final float[] weights;
+    private final float[] curiosity;
+    private final double[] tree;
+
+    // what a checkpoint needs to continue exactly: the list order and the weights as they are, rounding included
+    static final class State {
+        final Selection selection;
+        final int[] cells;
+        final float[] weights;
+        final float[] curiosity;
+        final double[] tree;
+
+        State(Selection selection, int[] cells, float[] weights, float[] curiosity, double[] tree) {
+            this.selection = selection;
+            this.cells = cells;
+            this.weights = weights;
+            this.curiosity = curiosity;
+            this.tree = tree;
+        }
+    }
+
+    EliteSampler(Selection selection, AtomicReferenceArray<ArchiveRecord> records) {
+        this.selection = selection;
+        this.records = records;
+        int cellCount = records.length();
+        cells = new int[cellCount];
+        positions = new int[cellCount];
+        Arrays.fill(positions, -1);
+        boolean weighted = selection != Selection.UNIFORM;
+        weights = weighted ? new float[cellCount] : null;
+        curiosity = selection == Selection.CURIOSITY ? new float[cellCount] : null;
+        tree = weighted ? new double[cellCount + 1] : null;
+    }
+
+    private void setWeight(int position, float weight) {
+        double delta = weight - weights[position];
+        weights[position] = weight;
+        for (int i = position + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    private double total(int n) {
+        double sum = 0;
+        for (int i = n; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    private static float curiosityWeight(float score) {
+        return Math.max(1f + score, MIN_CURIOSITY_WEIGHT);
+    }
+
+    // ------------------ updates ------------------
+    // the cell has a new elite; uniform selection only cares about the first one
+    void onElite(int cell) {
+        if (selection == Selection.UNIFORM && positions[cell] >= 0) {
+            return;
+        }
+        register(cell);
+    }
+
+    // the elite is read back here, so of two racing replacements the weight ends up on the later one
+    private synchronized void register(int cell) {
+        int position = positions[cell];
+        if (position < 0) {
+            position = count;
+            cells[position] = cell;
+            positions[cell] = position;
+            count = position + 1;
+        }
+        switch (selection) {
+            case FITNESS -> setWeight(position, records.get(cell).getFitness());
+            case CURIOSITY -> {
+                // a new elite starts over
+                curiosity[position] = 0f;
+                setWeight(position, curiosityWeight(0f));
+            }
+            default -> { }
+        }
+    }
+
+    // parentCell is where a parent of the offspring was selected, -1 for none
+    synchronized void onOffspring(int parentCell, boolean added) {
+        if (selection != Selection.CURIOSITY || parentCell < 0) {
+            return;
+        }
+        int position = positions[parentCell];
+        curiosity[position] += added ? CURIOSITY_SUCCESS : CURIOSITY_FAILURE;
+        setWeight(position, curiosityWeight(curiosity[position]));
+    }
+
+    // ------------------ checkpoints ------------------
+    synchronized State state() {
+        int n = count;
+        return new State(
+                selection,
+                Arrays.copyOf(cells, n),
+                weights == null ? null : Arrays.copyOf(weights, n),
+                curiosity == null ? null : Arrays.copyOf(curiosity, n),
+                tree == null ? null : tree.clone()
+        );
+    }
+
+    // the records of state.cells must already be in place
+    static EliteSampler restore(State state, AtomicReferenceArray<ArchiveRecord> records) {
+        EliteSampler sampler = new EliteSampler(state.selection, records);
+        int n = state.cells.length;
+        for (int position = 0; position < n; position++) {
+            sampler.cells[position] = state.cells[position];
+            sampler.positions[state.cells[position]] = position;
+        }
+        if (sampler.weights != null) {
+            System.arraycopy(state.weights, 0, sampler.weights, 0, n);
+            System.arraycopy(state.tree, 0, sampler.tree, 0, sampler.tree.length);
+        }
+        if (sampler.curiosity != null) {
+            System.arraycopy(state.curiosity, 0, sampler.curiosity, 0, n);
+        }
+        sampler.count = n;
+        return sampler;
+    }
+
+    // ------------------ API ------------------
+    int size() {
+        return count;
+    }
+
+    // the i-th occupied cell, in the order they were filled
+    int cellAt(int i) {
+        return cells[i];
+    }
+
+    // an occupied cell, -1 if there is none
+    int select(Rng rng) {
+        int n = count;
+        if (n == 0) {
+            return -1;
+        }
+        if (selection == Selection.UNIFORM) {
+            return cells[rng.nextInt(n)];
+        }
+        return selectWeighted(rng);
+    }
+
+    // descends the Fenwick tree to the position whose cumulative weight range holds the target
+    private synchronized int selectWeighted(Rng rng) {
+        int n = count;
+        double total = total(n);
+        if (!(total > 0)) {
+            return cells[rng.nextInt(n)];
+        }
+        double target = rng.nextDouble() * total;
+        int position = 0;
+        for (int step = Integer.highestOneBit(n); step > 0; step >>= 1) {
+            int next = position + step;
+            if (next <= n && tree[next] <= target) {
+                position = next;
+                target -= tree[next];
+            }
+        }
+        return cells[Math.min(position, n - 1)];
+    }
+}
@@ -0,0 +1,13 @@
+package io.github.dungeon.generator.algorithm;
+
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+// a candidate's cell and record, computed before it is offered to the archive
+@Data
+@AllArgsConstructor
+class Evaluation {
+    int cell;
+    ArchiveRecord record;
+}
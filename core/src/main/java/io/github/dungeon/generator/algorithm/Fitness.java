@@ -2,12 +2,11 @@ package io.github.dungeon.generator.algorithm;
 
 
 import io.github.dungeon.common.Constants;
+import io.github.dungeon.common.Rng;
+import io.github.dungeon.generator.layout.LayoutFeasibility;
 import io.github.dungeon.generator.layout.LayoutGenerator;
+import io.github.dungeon.generator.tree.CompactTree;
 import io.github.dungeon.generator.tree.DungeonTree;
-import io.github.dungeon.generator.tree.NodeTypes;
-
-import java.util.*;
-import java.util.function.ToDoubleFunction;
 
 public final class Fitness {
     // ------------------ helpers ------------------
@@ -18,26 +17,18 @@ public final class Fitness {
 
     // ------------------ quality ------------------
     // more -> better (up to 75% of max nodes)
-    private static float countNodes(DungeonTree tree) {
-        int count = tree.countNodes();
+    private static float countNodes(TreeFeatures features) {
+        int count = features.getNodeCount();
         float value = (float) count / Constants.MAX_NODES;
         return gaussDistribution(value, 0.75f, 0.15f);
     }
 
-    private static float nodesDiversity(DungeonTree tree) {
-        List<DungeonTree> nodes = new ArrayList<>();
-        tree.collectNodes(nodes);
-
-        Map<String, Integer> types = new HashMap<>();
-        for (DungeonTree node : nodes) {
-            types.put(node.getType().getName(),
-                types.getOrDefault(node.getType().getName(), 0) + 1);
-        }
-
-        int total = nodes.size();
+    private static float nodesDiversity(TreeFeatures features) {
+        int total = features.getNodeCount();
         double entropy = 0.0;
 
-        for (int count : types.values()) {
+        for (int count : features.getTypeHistogram()) {
+            if (count == 0) continue;
             double p = (double) count / total;
             entropy -= p * Math.log(p);
         }
@@ -47,89 +38,80 @@ public final class Fitness {
     }
 
     // which part of the dungeon is on the main path from start to exit; should be ~50%
-    private static float startToExitPathLen(DungeonTree tree) {
-        List<DungeonTree> nodes = new ArrayList<>();
-        tree.collectNodes(nodes);
-
-        DungeonTree start = null;
-        DungeonTree exit = null;
-
-        for (DungeonTree node : nodes) {
-            if (node.getType() instanceof NodeTypes.Start) {
-                start = node;
-            } else if (node.getType() instanceof NodeTypes.Exit) {
-                exit = node;
-            }
-        }
-
-        if (start == null || exit == null) {
+    private static float startToExitPathLen(TreeFeatures features) {
+        if (features.getStart() == CompactTree.NO_NODE || features.getExit() == CompactTree.NO_NODE) {
             return 0;
         }
 
-        int distance = tree.getTreeDistance(start, exit);
-        float percent = distance / (float)(tree.countNodes());
+        int distance = features.getStartExitDistance();
+        float percent = distance / (float)(features.getNodeCount());
         return gaussDistribution(percent, 0.5f, 0.1f);
     }
 
-    public static float avgBranchingFactor(DungeonTree tree) {
-        List<DungeonTree> nodes = new ArrayList<>();
-        tree.collectNodes(nodes);
-        return average(
-            nodes.stream().filter(n -> n.countChildren() > 0).toList(),
-            DungeonTree::countChildren
-        ) / 3.0f;
+    public static float avgBranchingFactor(TreeFeatures features) {
+        return average(features.getChildrenSum(), features.getInnerNodesCount()) / 3.0f;
     }
 
-    private static float averageRisk(DungeonTree tree) {
-        return average(getAllNodes(tree), n -> n.getType().getRisk());
+    private static float averageRisk(TreeFeatures features) {
+        return average(features.getRiskSum(), features.getNodeCount());
     }
 
-    private static float averageReward(DungeonTree tree) {
-        return average(getAllNodes(tree), n -> n.getType().getReward());
+    private static float averageReward(TreeFeatures features) {
+        return average(features.getRewardSum(), features.getNodeCount());
     }
 
-    private static float averageRiskOnMainPath(DungeonTree tree) {
-        return average(getMainPath(tree), n -> n.getType().getRisk());
+    private static float averageRiskOnMainPath(TreeFeatures features) {
+        return average(features.getMainPathRiskSum(), mainPathLength(features));
     }
 
-    private static float averageRewardOnMainPath(DungeonTree tree) {
-        return average(getMainPath(tree), n -> n.getType().getReward());
+    private static float averageRewardOnMainPath(TreeFeatures features) {
+        return average(features.getMainPathRewardSum(), mainPathLength(features));
     }
 
-    public static float riskValue(DungeonTree tree) {
-        return averageRisk(tree) * 0.75f + averageRiskOnMainPath(tree) * 0.25f;
+    public static float riskValue(TreeFeatures features) {
+        return averageRisk(features) * 0.75f + averageRiskOnMainPath(features) * 0.25f;
     }
 
-    static float rewardValue(DungeonTree tree) {
-        return averageReward(tree) * 0.75f + averageRewardOnMainPath(tree) * 0.25f;
+    public static float rewardValue(TreeFeatures features) {
+        return averageReward(features) * 0.75f + averageRewardOnMainPath(features) * 0.25f;
     }
 
-    private static float balanceValue(DungeonTree tree) {
-        float risk = riskValue(tree);
-        float reward = rewardValue(tree);
+    // share of the nodes on the main path, 0 without a unique start and exit
+    public static float mainPathRatio(TreeFeatures features) {
+        return average(mainPathLength(features), features.getNodeCount());
+    }
+
+    public static float nodeCountRatio(TreeFeatures features) {
+        return (float) features.getNodeCount() / Constants.MAX_NODES;
+    }
+
+    private static float balanceValue(TreeFeatures features) {
+        float risk = riskValue(features);
+        float reward = rewardValue(features);
         float diff = reward - risk;
         return gaussDistribution(diff, 0f, 0.2f);
     }
 
     // ------------------ controls ------------------
     // should have start and exit
-    static float hasStartAndExitOnce(DungeonTree tree) {
-        if (tree.hasStartAndExitOnce()) {
+    static float hasStartAndExitOnce(TreeFeatures features) {
+        if (features.hasStartAndExitOnce()) {
             return 1.0f;
         } else {
             return 0.0f;
         }
     }
 
-    static float canGenerateLayout(DungeonTree tree) {
+    // the search is seeded by the tree itself, so fitness is a pure function of the tree -
+    // safe to cache and identical no matter which thread or run evaluates it
+    static float canGenerateLayout(CompactTree tree, long seed) {
+        if (!LayoutFeasibility.isPlausible(tree)) {
+            return 0f;
+        }
         float successRate = 0f;
-        for (int i = 0; i < 5; i++) {
-            try {
-                LayoutGenerator.generateLayout(tree, 1);
-                successRate += 0.2f;
-            } catch (IllegalArgumentException e) {
-                // try again
-            }
+        int successes = LayoutGenerator.countSuccessfulAttempts(tree, 5, new Rng(seed));
+        for (int i = 0; i < successes; i++) {
+            successRate += 0.2f;
         }
         if (successRate > 0.5f) {
             return successRate;
@@ -139,47 +121,48 @@ public final class Fitness {
     }
 
     // ------------------ other ------------------
-    private static float average(List<DungeonTree> nodes, ToDoubleFunction<DungeonTree> mapper) {
-        if (nodes.isEmpty()) return 0;
-
-        double total = 0;
-        for (DungeonTree node : nodes) {
-            total += mapper.applyAsDouble(node);
-        }
-        return (float) (total / nodes.size());
-    }
-
-    private static List<DungeonTree> getAllNodes(DungeonTree tree) {
-        List<DungeonTree> nodes = new ArrayList<>();
-        tree.collectNodes(nodes);
-        return nodes;
+    private static float average(double total, int count) {
+        if (count == 0) return 0;
+        return (float) (total / count);
     }
 
-    private static List<DungeonTree> getMainPath(DungeonTree tree) {
-        if (hasStartAndExitOnce(tree) == 0f) return Collections.emptyList();
-
-        List<DungeonTree> path = new ArrayList<>();
-        tree.collectNodesMainPath(path);
-        return path;
+    // main path only counts when start and exit are unique
+    private static int mainPathLength(TreeFeatures features) {
+        if (hasStartAndExitOnce(features) == 0f) return 0;
+        return features.getMainPathLength();
     }
 
     // ------------- API -------------
-    private static float quality(DungeonTree tree) {
+    private static float quality(TreeFeatures features) {
         return (
-                countNodes(tree)
-                + startToExitPathLen(tree)
-                + nodesDiversity(tree)
-                + balanceValue(tree)
+                countNodes(features)
+                + startToExitPathLen(features)
+                + nodesDiversity(features)
+                + balanceValue(features)
         ) / 4;
     }
 
-    private static float control(DungeonTree tree) {
-        return hasStartAndExitOnce(tree) * canGenerateLayout(tree);
+    // the layout search only runs for trees that pass the cheap control
+    private static float control(TreeFeatures features) {
+        float startAndExit = hasStartAndExitOnce(features);
+        if (startAndExit == 0f) {
+            return 0f;
+        }
+        return startAndExit * canGenerateLayout(features.getTree(), features.getCanonicalHash());
+    }
+
+    // fitness(features, true, true) is never above this: everything but the layout check, which is at most 1
+    public static float fitnessUpperBound(TreeFeatures features) {
+        return quality(features) * hasStartAndExitOnce(features);
     }
 
-    public static float fitness(DungeonTree tree, boolean quality, boolean control) {
-        float q = quality ? quality(tree): 1.0f;
-        float c = control ? control(tree): 1.0f;
+    public static float fitness(TreeFeatures features, boolean quality, boolean control) {
+        float q = quality ? quality(features): 1.0f;
+        float c = control ? control(features): 1.0f;
         return q * c;
     }
+
+    public static float fitness(DungeonTree tree, boolean quality, boolean control) {
+        return fitness(TreeFeatures.of(tree), quality, control);
+    }
 }
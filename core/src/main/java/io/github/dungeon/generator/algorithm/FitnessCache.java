@@ -0,0 +1,75 @@
+package io.github.dungeon.generator.algorithm;
+
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Bounded LRU memo of fitness values keyed by the canonical structural hash from {@link TreeFeatures}.
+ * Two trees that differ only in the order of children share one entry, as no fitness term depends on it.
+ */
+public class FitnessCache {
+    private final int capacity;
+    private final Function<TreeFeatures, Float> fitnessFunction;
+    private final Map<Long, Float> cache;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public FitnessCache(int capacity, Function<TreeFeatures, Float> fitnessFunction) {
+        this.capacity = capacity;
+        this.fitnessFunction = fitnessFunction;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Float> eldest) {
+                return size() > FitnessCache.this.capacity;
+            }
+        };
+    }
+
+    // ------------------ API ------------------
+    public float fitness(TreeFeatures features) {
+        long key = features.getCanonicalHash();
+        Float cached;
+        synchronized (cache) {
+            cached = cache.get(key);
+        }
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+
+        // evaluated outside the lock - two threads may compute the same tree, but nobody waits for a layout check
+        misses.increment();
+        float fitness = fitnessFunction.apply(features);
+        synchronized (cache) {
+            cache.put(key, fitness);
+        }
+        return fitness;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public float hitRate() {
+        long hitsNum = getHits();
+        long total = hitsNum + getMisses();
+        return total == 0 ? 0f : (float) hitsNum / total;
+    }
+
+    public void printStats() {
+        int entries;
+        synchronized (cache) {
+            entries = cache.size();
+        }
+        System.out.printf("Fitness cache: %d hits, %d misses (%.1f%% hit rate), %d / %d entries%n",
+                getHits(), getMisses(), 100 * hitRate(), entries, capacity);
+    }
+}
@@ -0,0 +1,97 @@
+package io.github.dungeon.generator.algorithm;
+
+
+import io.github.dungeon.common.Rng;
+
+/**
+ * Regular grid with its own number of bins per descriptor, flattened row-major: the first descriptor changes
+ * slowest, so a 2D grid keeps the x * size + y layout of the original square archive.
+ */
+public final class GridCells implements ArchiveCells {
+    private final int[] bins;
+    private final int[] strides;
+    private final int cellCount;
+
+    public GridCells(int... bins) {
+        if (bins.length == 0) {
+            throw new IllegalArgumentException("Grid needs at least one dimension");
+        }
+        this.bins = bins.clone();
+        strides = new int[bins.length];
+        long count = 1;
+        for (int d = bins.length - 1; d >= 0; d--) {
+            if (bins[d] < 1) {
+                throw new IllegalArgumentException("Every dimension needs at least one bin");
+            }
+            strides[d] = (int) count;
+            count *= bins[d];
+            if (count > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Grid has too many cells");
+            }
+        }
+        cellCount = (int) count;
+    }
+
+    // ------------------ API ------------------
+    @Override
+    public int dimensions() {
+        return bins.length;
+    }
+
+    @Override
+    public int cellCount() {
+        return cellCount;
+    }
+
+    public int bins(int dimension) {
+        return bins[dimension];
+    }
+
+    @Override
+    public int cellOf(float[] point) {
+        int cell = 0;
+        for (int d = 0; d < bins.length; d++) {
+            int index = Math.min((int) (point[d] * bins[d]), bins[d] - 1);
+            cell += index * strides[d];
+        }
+        return cell;
+    }
+
+    // one draw per dimension, in order
+    @Override
+    public int randomCell(Rng rng) {
+        int cell = 0;
+        for (int d = 0; d < bins.length; d++) {
+            cell += rng.nextInt(bins[d]) * strides[d];
+        }
+        return cell;
+    }
+
+    public int cellAt(int... coordinates) {
+        if (coordinates.length != bins.length) {
+            throw new IllegalArgumentException("Expected " + bins.length + " coordinates");
+        }
+        int cell = 0;
+        for (int d = 0; d < bins.length; d++) {
+            if (coordinates[d] < 0 || coordinates[d] >= bins[d]) {
+                throw new IndexOutOfBoundsException("Index out of bounds for archive");
+            }
+            cell += coordinates[d] * strides[d];
+        }
+        return cell;
+    }
+
+    public int coordinate(int cell, int dimension) {
+        return cell / strides[dimension] % bins[dimension];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("grid ");
+        for (int d = 0; d < bins.length; d++) {
+            if (d > 0) sb.append('x');
+            sb.append(bins[d]);
+        }
+        return sb.toString();
+    }
+}
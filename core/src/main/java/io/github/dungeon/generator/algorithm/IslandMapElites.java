@@ -0,0 +1,137 @@
+package io.github.dungeon.generator.algorithm;
+
+
+import io.github.dungeon.common.Rng;
+import io.github.dungeon.generator.layout.LayoutFeasibility;
+import io.github.dungeon.generator.layout.LayoutGenerator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+
+/**
+ * Island model of MAP-Elites: every island evolves its own archive on a worker thread,
+ * and every migration interval each island receives a few elites from its neighbour (ring topology).
+ * Generations are a total budget split evenly between islands; the remainder is one more generation each
+ * for the first islands, after the last epoch.
+ * Every island draws from its own split of the seed, so the result doesn't depend on thread scheduling.
+ */
+public final class IslandMapElites {
+    final static int ISLANDS_DEFAULT = Runtime.getRuntime().availableProcessors();
+    final static int MIGRATION_INTERVAL_DEFAULT = 10_000;
+    final static int MIGRANTS = 5;
+
+    // ------------------------- islands -------------------------
+    private static void runOnIslands(
+            ExecutorService pool,
+            MapElitesArchive[] islands,
+            Rng[] streams,
+            BiConsumer<MapElitesArchive, Rng> task
+    ) {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < islands.length; i++) {
+            MapElitesArchive island = islands[i];
+            Rng rng = streams[i];
+            tasks.add(() -> {
+                task.accept(island, rng);
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while evolving islands", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Island failed", e.getCause());
+        }
+    }
+
+    // runs between epochs, when no island is evolving
+    private static void migrate(MapElitesArchive[] islands, Rng rng) {
+        for (int i = 0; i < islands.length; i++) {
+            MapElitesArchive neighbour = islands[(i + islands.length - 1) % islands.length];
+            islands[i].acceptMigrants(neighbour, MIGRANTS, rng);
+        }
+    }
+
+    // ------------------------- algorithm -------------------------
+    public static MapElitesArchive run(int generations_num) {
+        return run(generations_num, ISLANDS_DEFAULT, ISLANDS_DEFAULT, MIGRATION_INTERVAL_DEFAULT, new Rng());
+    }
+
+    // the same seed and number of islands give the same archive, for any number of threads
+    public static MapElitesArchive run(int generations_num, long seed) {
+        return run(generations_num, ISLANDS_DEFAULT, ISLANDS_DEFAULT, MIGRATION_INTERVAL_DEFAULT, new Rng(seed));
+    }
+
+    public static MapElitesArchive run(
+            int generations_num,
+            int islands_num,
+            int threads_num,
+            int migrationInterval,
+            Rng rng
+    ) {
+        if (islands_num < 1 || threads_num < 1 || migrationInterval < 1) {
+            throw new IllegalArgumentException("Islands, threads and migration interval must be positive");
+        }
+
+        // -- initialize
+        MapElitesArchive[] islands = new MapElitesArchive[islands_num];
+        Rng[] streams = new Rng[islands_num];
+        for (int i = 0; i < islands_num; i++) {
+            islands[i] = MapElites.createArchive();
+            streams[i] = rng.split();
+        }
+        int generationsPerIsland = generations_num / islands_num;
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads_num);
+        try {
+            runOnIslands(pool, islands, streams, (island, stream) -> island.populateArchive(MapElites.BASE_POPULATION, stream));
+            // -- main loop, one epoch per migration
+            int done = 0;
+            while (done < generationsPerIsland) {
+                int epoch = Math.min(migrationInterval, generationsPerIsland - done);
+                runOnIslands(pool, islands, streams, (island, stream) -> MapElites.evolve(island, epoch, stream));
+                done += epoch;
+                if (done < generationsPerIsland) {
+                    migrate(islands, rng);
+                }
+            }
+            int remainder = generations_num % islands_num;
+            if (remainder > 0) {
+                runOnIslands(pool, Arrays.copyOf(islands, remainder), Arrays.copyOf(streams, remainder),
+                        (island, stream) -> MapElites.evolve(island, 1, stream));
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        // -- merge
+        MapElitesArchive merged = MapElites.createArchive();
+        for (MapElitesArchive island : islands) {
+            merged.merge(island);
+        }
+        return merged;
+    }
+
+    public static void main(String[] args) {
+        int numGenerations = 1_000_000;
+        MapElitesArchive res = IslandMapElites.run(numGenerations);
+        res.print();
+        MapElites.FITNESS_CACHE.printStats();
+        MapElitesArchive.printStats();
+        TreeFeatures.printStats();
+        LayoutFeasibility.printStats();
+        LayoutGenerator.printStats();
+        res.serializeArchive(numGenerations);
+    }
+}
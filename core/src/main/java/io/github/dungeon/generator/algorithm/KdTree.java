@@ -0,0 +1,158 @@
+package io.github.dungeon.generator.algorithm;
+
+
+/**
+ * Static k-d tree over a flat array of points (dimensions floats each) for nearest-point queries.
+ * The tree is implicit: every range [lo, hi) of order is a subtree whose splitting point sits in the middle,
+ * with the smaller coordinates on its axis before it, and ranges of up to LEAF_SIZE points are scanned.
+ * Read-only after construction, so it's safe to share.
+ */
+final class KdTree {
+    private static final int LEAF_SIZE = 8;
+
+    private final float[] points;
+    private final int dimensions;
+    private final int[] order;
+    // splitting axis of the subtree whose middle is at this position of order
+    private final byte[] axes;
+
+    KdTree(float[] points, int dimensions) {
+        this.points = points;
+        this.dimensions = dimensions;
+        order = new int[points.length / dimensions];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        axes = new byte[order.length];
+        build(0, order.length);
+    }
+
+    // splits on the axis where the points are spread the most
+    private void build(int lo, int hi) {
+        if (hi - lo <= LEAF_SIZE) return;
+        int axis = 0;
+        float widest = -1f;
+        for (int d = 0; d < dimensions; d++) {
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            for (int i = lo; i < hi; i++) {
+                float value = coordinate(order[i], d);
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (max - min > widest) {
+                widest = max - min;
+                axis = d;
+            }
+        }
+        int mid = (lo + hi) >>> 1;
+        axes[mid] = (byte) axis;
+        select(lo, hi - 1, mid, axis);
+        build(lo, mid);
+        build(mid + 1, hi);
+    }
+
+    // quickselect on [lo, hi]: puts the k-th point by axis at k, no bigger ones before it and no smaller ones after
+    private void select(int lo, int hi, int k, int axis) {
+        while (lo < hi) {
+            float pivot = coordinate(order[(lo + hi) >>> 1], axis);
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (coordinate(order[i], axis) < pivot) i++;
+                while (coordinate(order[j], axis) > pivot) j--;
+                if (i <= j) {
+                    int tmp = order[i];
+                    order[i++] = order[j];
+                    order[j--] = tmp;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private float coordinate(int point, int axis) {
+        return points[point * dimensions + axis];
+    }
+
+    private float distance(int point, float[] query, int offset) {
+        float sum = 0f;
+        int base = point * dimensions;
+        for (int d = 0; d < dimensions; d++) {
+            float diff = points[base + d] - query[offset + d];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    private static final class Nearest {
+        int point = -1;
+        float distance = Float.POSITIVE_INFINITY;
+        // per axis, how far the query is outside the current subtree's box
+        final float[] offsets;
+
+        Nearest(int dimensions) {
+            offsets = new float[dimensions];
+        }
+
+        void offer(int candidate, float candidateDistance) {
+            // ties go to the lower point index, so the answer doesn't depend on the shape of the tree
+            if (candidateDistance < distance || (candidateDistance == distance && candidate < point)) {
+                point = candidate;
+                distance = candidateDistance;
+            }
+        }
+    }
+
+    // boxDistance is the squared distance from the query to the box of the subtree, kept up to date one axis
+    // at a time, so a far subtree is skipped as soon as its box is farther than the best point
+    private void search(int lo, int hi, float boxDistance, float[] query, int offset, Nearest best) {
+        if (hi - lo <= LEAF_SIZE) {
+            for (int i = lo; i < hi; i++) {
+                best.offer(order[i], distance(order[i], query, offset));
+            }
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        int point = order[mid];
+        best.offer(point, distance(point, query, offset));
+
+        int axis = axes[mid];
+        float diff = query[offset + axis] - coordinate(point, axis);
+        int nearLo = diff < 0 ? lo : mid + 1;
+        int nearHi = diff < 0 ? mid : hi;
+        int farLo = diff < 0 ? mid + 1 : lo;
+        int farHi = diff < 0 ? hi : mid;
+
+        search(nearLo, nearHi, boxDistance, query, offset, best);
+        float previous = best.offsets[axis];
+        float farDistance = boxDistance - previous * previous + diff * diff;
+        if (farDistance <= best.distance) {
+            best.offsets[axis] = diff;
+            search(farLo, farHi, farDistance, query, offset, best);
+            best.offsets[axis] = previous;
+        }
+    }
+
+    // ------------------ API ------------------
+    // index of the point closest to query[offset, offset + dimensions); a hint that is likely close
+    // (e.g. the answer for a nearby query) prunes the search from the start, -1 for none
+    int nearest(float[] query, int offset, int hint) {
+        Nearest best = new Nearest(dimensions);
+        if (hint >= 0) {
+            best.offer(hint, distance(hint, query, offset));
+        }
+        search(0, order.length, 0f, query, offset, best);
+        return best.point;
+    }
+
+    int nearest(float[] query) {
+        return nearest(query, 0, -1);
+    }
+}
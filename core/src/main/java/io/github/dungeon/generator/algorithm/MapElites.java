@@ -1,147 +1,376 @@
 package io.github.dungeon.generator.algorithm;
 
 
-import io.github.dungeon.generator.tree.DungeonTree;
+import io.github.dungeon.common.Rng;
+import io.github.dungeon.generator.layout.LayoutFeasibility;
+import io.github.dungeon.generator.layout.LayoutGenerator;
+import io.github.dungeon.generator.tree.CompactTree;
 import io.github.dungeon.generator.tree.NodeTypes;
 
+import java.io.File;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public final class MapElites {
     final static int GENERATIONS_DEFAULT = 10_000_000;
     final static int BASE_POPULATION = 100;
+    final static int BATCH_SIZE_DEFAULT = 256;
+    final static int FITNESS_CACHE_SIZE = 100_000;
+    final static int ARCHIVE_SIZE = 10;
+    final static int CVT_CELLS_DEFAULT = 2_000;
+    // fixed, so every CVT archive with the same cell count has the same cells and can be merged
+    final static long CVT_SEED = 0x5eed_c7a1L;
+    // centroids take a while to compute, so they are shared by every archive with that many cells
+    private static final Map<Integer, CvtCells> CVT_CELLS = new ConcurrentHashMap<>();
 
-    private static DungeonTree getRandomNode(DungeonTree root) {
-        List<DungeonTree> nodes = new ArrayList<>();
-        root.collectNodes(nodes);
-        return nodes.get(ThreadLocalRandom.current().nextInt(nodes.size()));
+    // shared by all runs and threads - the same tree shapes keep coming back through mutation and crossover
+    static final FitnessCache FITNESS_CACHE = new FitnessCache(
+            FITNESS_CACHE_SIZE,
+            features -> Fitness.fitness(features, true, true)
+    );
+
+    private static int getRandomNode(CompactTree tree, Rng rng) {
+        return rng.nextInt(tree.size());
     }
 
 // ------------------------- mutations -------------------------
-    private static void changeRoomType(DungeonTree tree) {
-        tree.setType(NodeTypes.getRandomRoom());
+    // every mutation returns what it changed, so the offspring's features are updated instead of recomputed
+    private static TreeEdit changeRoomType(CompactTree tree, int node, Rng rng) {
+        TreeEdit edit = TreeEdit.retype(tree, node);
+        tree.setRandomRoom(node, rng);
+        return edit;
     }
 
-    private static void swapRoomTypes(DungeonTree tree1, DungeonTree tree2) {
-        NodeTypes.Base temp = tree1.getType();
-        tree1.setType(tree2.getType());
-        tree2.setType(temp);
+    private static TreeEdit swapRoomTypes(CompactTree tree, int node1, int node2) {
+        tree.swapTypes(node1, node2);
+        return TreeEdit.swap(node1, node2);
     }
 
-    private static void addChildNode(DungeonTree tree) {
-        if (tree.getChildren().size() < 3) {
-            tree.addChild(new DungeonTree(tree));
-        }
+    private static TreeEdit addChildNode(CompactTree tree, int node, Rng rng) {
+        return TreeEdit.addLeaf(tree.addRandomLeaf(node, rng));
     }
 
-    private static void removeChildNode(DungeonTree tree) {
-        HashSet<DungeonTree> children = tree.getChildren();
-
-        if (children.isEmpty()) return; // shouldn't happen, but just in case
+    private static TreeEdit removeChildNode(CompactTree tree, int node, Rng rng) {
+        // same draw as CompactTree.removeRandomChild
+        int count = tree.childCount(node);
+        if (count == 0) return TreeEdit.NONE;
+        int slot = rng.nextInt(count);
+        TreeEdit edit = TreeEdit.removeChild(tree, node, tree.child(node, slot));
+        NodeTypes.Kind removed = tree.removeChild(node, slot);
 
-        DungeonTree removed = tree.removeRandomChild();
-
-        if (removed != null && removed.getType() instanceof NodeTypes.Start) {
-            tree.setType(new NodeTypes.Start());
+        if (removed == NodeTypes.Kind.START) {
+            tree.setType(node, NodeTypes.Kind.START, 0, 0);
+            return TreeEdit.RESTRUCTURE;
         }
-        if (removed != null && removed.getType() instanceof NodeTypes.Exit) {
-            tree.setType(new NodeTypes.Exit());
+        if (removed == NodeTypes.Kind.EXIT) {
+            tree.setType(node, NodeTypes.Kind.EXIT, 0, 0);
+            return TreeEdit.RESTRUCTURE;
         }
+        return edit;
     }
 
-    private static DungeonTree mutate(DungeonTree tree) {
-        DungeonTree treeCopy = tree.deepCopy();
-        DungeonTree randomChild = getRandomNode(treeCopy);
-        if (randomChild == null) return treeCopy;
-        float rand = (float)Math.random();
-        if (randomChild.isLeaf()) {
+    // offspring shares the parent's arrays until the mutation writes, the parent stays untouched
+    private static TreeFeatures mutate(TreeFeatures parent, Rng rng) {
+        CompactTree treeCopy = parent.getTree().copy();
+        int randomChild = getRandomNode(treeCopy, rng);
+        float rand = rng.nextFloat();
+        TreeEdit edit;
+        if (treeCopy.isLeaf(randomChild)) {
             if (rand < 0.5f) {
-                changeRoomType(randomChild);
+                edit = changeRoomType(treeCopy, randomChild, rng);
             } else {
-                addChildNode(randomChild);
+                edit = addChildNode(treeCopy, randomChild, rng);
             }
-        } else if (randomChild.isStartOrExit()) {
+        } else if (treeCopy.isStartOrExit(randomChild)) {
              if (rand < 0.33f) {
-                 DungeonTree randomChild2 = getRandomNode(treeCopy);
-                 swapRoomTypes(randomChild, randomChild2);
+                 int randomChild2 = getRandomNode(treeCopy, rng);
+                 edit = swapRoomTypes(treeCopy, randomChild, randomChild2);
             } else if (rand < 0.66f) {
-                addChildNode(randomChild);
+                edit = addChildNode(treeCopy, randomChild, rng);
             } else {
-                removeChildNode(randomChild);
+                edit = removeChildNode(treeCopy, randomChild, rng);
             }
         } else {
             if (rand < 0.35f) {
-                changeRoomType(randomChild);
+                edit = changeRoomType(treeCopy, randomChild, rng);
             } else if (rand < 0.7f) {
-                addChildNode(randomChild);
+                edit = addChildNode(treeCopy, randomChild, rng);
             } else {
-                removeChildNode(randomChild);
+                edit = removeChildNode(treeCopy, randomChild, rng);
             }
         }
-        return treeCopy;
+        return TreeFeatures.update(parent, treeCopy, edit);
     }
 
 // ------------------------- crossover -------------------------
-    private static DungeonTree crossover(DungeonTree parent1, DungeonTree parent2) {
-        DungeonTree child = parent1.deepCopy();
-
-        List<DungeonTree> children1 = new ArrayList<>(child.getChildren());
-        List<DungeonTree> children2 = new ArrayList<>(parent2.getChildren());
+    private static CompactTree crossover(CompactTree parent1, CompactTree parent2, Rng rng) {
+        CompactTree child = parent1.copy();
 
-        if (children1.isEmpty() || children2.isEmpty()) return child;
+        if (child.isLeaf(0) || parent2.isLeaf(0)) return child;
 
-        child.removeRandomChild();
+        child.removeRandomChild(0, rng);
 
-        DungeonTree toAdd = parent2.getRandomChild();
-        child.addChild(toAdd.deepCopy());
+        int toAdd = parent2.randomChild(0, rng);
+        child.graft(0, parent2, toAdd);
 
         return child;
     }
 
 // ------------------------- algorithm -------------------------
+    static MapElitesArchive createArchive() {
+        return new MapElitesArchive(
+                List.of(
+                        new Descriptor("risk", Fitness::riskValue, 0.1f, 0.8f),
+                        new Descriptor("branching", Fitness::avgBranchingFactor, 0.3f, 0.7f)
+                ),
+                new GridCells(ARCHIVE_SIZE, ARCHIVE_SIZE),
+                FITNESS_CACHE::fitness,
+                Fitness::fitnessUpperBound
+        );
+    }
+
+    // five descriptors don't fit a grid, so the cells are a CVT
+    public static MapElitesArchive createCvtArchive(int cellCount) {
+        return new MapElitesArchive(
+                List.of(
+                        new Descriptor("risk", Fitness::riskValue, 0.1f, 0.8f),
+                        new Descriptor("reward", Fitness::rewardValue, 0.1f, 0.8f),
+                        new Descriptor("branching", Fitness::avgBranchingFactor, 0.3f, 0.7f),
+                        new Descriptor("main path", Fitness::mainPathRatio, 0f, 1f),
+                        new Descriptor("nodes", Fitness::nodeCountRatio, 0f, 1f)
+                ),
+                CVT_CELLS.computeIfAbsent(cellCount, count -> new CvtCells(5, count, new Rng(CVT_SEED))),
+                FITNESS_CACHE::fitness,
+                Fitness::fitnessUpperBound
+        );
+    }
+
+    // features of one offspring from mutation or crossover of selected elites, null if parents are missing.
+    // The cells of the parents go to parents, -1 for none
+    private static TreeFeatures breed(MapElitesArchive archive, Rng rng, int[] parents) {
+        parents[0] = -1;
+        parents[1] = -1;
+        float rand = rng.nextFloat();
+        if (rand < 0.4f) {
+            // mutation
+            parents[0] = archive.selectCell(rng);
+            if (parents[0] >= 0) {
+                return mutate(archive.getFeatures(parents[0]), rng);
+            }
+        } else {
+            // crossover
+            parents[0] = archive.selectCell(rng);
+            parents[1] = archive.selectCell(rng);
+            if (parents[0] >= 0 && parents[1] >= 0) {
+                CompactTree parent1 = archive.getFeatures(parents[0]).getTree();
+                CompactTree parent2 = archive.getFeatures(parents[1]).getTree();
+                return TreeFeatures.of(crossover(parent1, parent2, rng));
+            }
+        }
+        return null;
+    }
+
+    private static void reportOffspring(MapElitesArchive archive, int[] parents, int from, boolean added) {
+        archive.reportOffspring(parents[from], added);
+        archive.reportOffspring(parents[from + 1], added);
+    }
+
+    static void evolve(MapElitesArchive archive, int generations_num, Rng rng) {
+        int[] parents = new int[2];
+        for (int generation = 0; generation < generations_num; generation++) {
+            TreeFeatures child = breed(archive, rng, parents);
+            if (child != null) {
+                boolean added = archive.addToArchive(child);
+                reportOffspring(archive, parents, 0, added);
+            }
+        }
+    }
+
+    // generational variant: breed a whole batch, evaluate it on the pool, then merge it in one step.
+    // Only breeding draws random numbers and it stays on this thread, so the result doesn't depend on the pool.
+    static void evolveBatched(MapElitesArchive archive, int generations_num, int batchSize, ForkJoinPool pool, Rng rng) {
+        int[] parents = new int[2];
+        // two parent cells per offspring
+        int[] batchParents = new int[2 * batchSize];
+        for (int generation = 0; generation < generations_num; generation += batchSize) {
+            int batch = Math.min(batchSize, generations_num - generation);
+            List<TreeFeatures> offspring = new ArrayList<>(batch);
+            for (int i = 0; i < batch; i++) {
+                TreeFeatures child = breed(archive, rng, parents);
+                if (child != null) {
+                    batchParents[2 * offspring.size()] = parents[0];
+                    batchParents[2 * offspring.size() + 1] = parents[1];
+                    offspring.add(child);
+                }
+            }
+
+            // null where an offspring can't get in, in the order of offspring
+            List<Evaluation> evaluations = pool.submit(() -> offspring.parallelStream()
+                    .map(archive::evaluate)
+                    .toList()
+            ).join();
+            for (int i = 0; i < evaluations.size(); i++) {
+                boolean added = archive.add(evaluations.get(i));
+                reportOffspring(archive, batchParents, 2 * i, added);
+            }
+        }
+    }
+
     public static MapElitesArchive run() {
         return MapElites.run(GENERATIONS_DEFAULT);
     }
 
     public static MapElitesArchive run(int generations_num) {
+        return run(generations_num, new Rng());
+    }
+
+    // the same seed gives the same archive
+    public static MapElitesArchive run(int generations_num, long seed) {
+        return run(generations_num, new Rng(seed));
+    }
+
+    public static MapElitesArchive run(int generations_num, Rng rng) {
+        return run(createArchive(), generations_num, Selection.UNIFORM, rng);
+    }
+
+    public static MapElitesArchive run(int generations_num, Selection selection, Rng rng) {
+        return run(createArchive(), generations_num, selection, rng);
+    }
+
+    // fills the given archive, e.g. createCvtArchive(), picking parents by selection
+    public static MapElitesArchive run(MapElitesArchive archive, int generations_num, Selection selection, Rng rng) {
         // -- initialize
-        MapElitesArchive archive = new MapElitesArchive(
-                Fitness::riskValue,
-                Fitness::avgBranchingFactor,
-                tree -> Fitness.fitness(tree, true, true),
-                0.1f, 0.8f,
-                0.3f, 0.7f
-        );
-        archive.populateArchive(BASE_POPULATION);
+        archive.setSelection(selection);
+        archive.populateArchive(BASE_POPULATION, rng);
         // -- main loop
-        for (int generation = 0; generation < generations_num; generation++) {
-            float rand = (float)Math.random();
-            if (rand < 0.4f) {
-                // mutation
-                DungeonTree parent = archive.getRandomTree();
-                if (parent != null) {
-                    DungeonTree child = mutate(parent);
-                    archive.addToArchive(child);
-                }
-            } else {
-                // crossover
-                DungeonTree parent1 = archive.getRandomTree();
-                DungeonTree parent2 = archive.getRandomTree();
-                if (parent1 != null && parent2 != null) {
-                    DungeonTree child = crossover(parent1, parent2);
-                    archive.addToArchive(child);
-                }
+        evolve(archive, generations_num, rng);
+        return archive;
+    }
+
+    // like run(), but every checkpointInterval generations the whole state goes to checkpointDir, so resume() can
+    // continue after a crash with the same result. Writing happens on a background thread while evolution goes on
+    public static MapElitesArchive run(
+            int generations_num,
+            Selection selection,
+            Rng rng,
+            File checkpointDir,
+            int checkpointInterval
+    ) {
+        if (checkpointInterval < 1) {
+            throw new IllegalArgumentException("Checkpoint interval must be positive");
+        }
+        // -- initialize
+        MapElitesArchive archive = createArchive();
+        archive.setSelection(selection);
+        archive.populateArchive(BASE_POPULATION, rng);
+        // -- main loop
+        return evolveWithCheckpoints(archive, 0, generations_num, checkpointInterval, checkpointDir, rng);
+    }
+
+    // continues the run that wrote the checkpoint in checkpointDir, with the same interval
+    public static MapElitesArchive resume(File checkpointDir) {
+        Checkpoint checkpoint = Checkpoint.read(checkpointDir);
+        MapElitesArchive archive = createArchive();
+        checkpoint.restore(archive);
+        return evolveWithCheckpoints(
+                archive,
+                checkpoint.generationsDone,
+                checkpoint.generationsTotal,
+                checkpoint.interval,
+                checkpointDir,
+                checkpoint.rng()
+        );
+    }
+
+    private static MapElitesArchive evolveWithCheckpoints(
+            MapElitesArchive archive,
+            int done,
+            int generations_num,
+            int interval,
+            File checkpointDir,
+            Rng rng
+    ) {
+        ExecutorService writer = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "checkpoint-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Future<?> pending = null;
+        try {
+            while (done < generations_num) {
+                int epoch = Math.min(interval, generations_num - done);
+                evolve(archive, epoch, rng);
+                done += epoch;
+                Checkpoint checkpoint = Checkpoint.of(archive, done, generations_num, interval, rng);
+                // at most one write in flight; evolution only waits if the disk is slower than a whole interval
+                awaitCheckpoint(pending);
+                pending = writer.submit(() -> checkpoint.write(checkpointDir));
             }
+            awaitCheckpoint(pending);
+            return archive;
+        } finally {
+            writer.shutdown();
+        }
+    }
+
+    private static void awaitCheckpoint(Future<?> pending) {
+        if (pending == null) {
+            return;
+        }
+        try {
+            pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while writing a checkpoint", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Checkpoint failed", e.getCause());
         }
+    }
+
+    // an archive saved by serializeArchive under levels/, e.g. to seed a new run with run(archive, ...)
+    public static MapElitesArchive loadArchive(String dirName) {
+        MapElitesArchive archive = createArchive();
+        archive.loadFrom(new File("levels", dirName));
         return archive;
     }
 
+    public static MapElitesArchive runBatched(int generations_num) {
+        return runBatched(generations_num, BATCH_SIZE_DEFAULT, Runtime.getRuntime().availableProcessors(), new Rng());
+    }
+
+    public static MapElitesArchive runBatched(int generations_num, int batchSize, int parallelism, Rng rng) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            // -- initialize
+            MapElitesArchive archive = createArchive();
+            archive.populateArchive(BASE_POPULATION, rng);
+            // -- main loop
+            evolveBatched(archive, generations_num, batchSize, pool, rng);
+            return archive;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     public static void main(String[] args) {
         int numGenerations = 1_000_000;
         MapElitesArchive res = MapElites.run(numGenerations);
         res.print();
+        FITNESS_CACHE.printStats();
+        MapElitesArchive.printStats();
+        TreeFeatures.printStats();
+        LayoutFeasibility.printStats();
+        LayoutGenerator.printStats();
         res.serializeArchive(numGenerations);
     }
 }
@@ -2,161 +2,321 @@ package io.github.dungeon.generator.algorithm;
 
 
 import io.github.dungeon.common.Constants;
+import io.github.dungeon.common.Rng;
+import io.github.dungeon.generator.tree.BinaryArchive;
+import io.github.dungeon.generator.tree.CompactTree;
 import io.github.dungeon.generator.tree.DungeonTree;
 import io.github.dungeon.generator.tree.DungeonTreeSerializer;
-import lombok.AllArgsConstructor;
-import lombok.Data;
 
 import java.io.File;
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
-
-@Data
-@AllArgsConstructor
-class ArchiveRecord {
-    DungeonTree tree;
-    float fitness;
-}
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 
 public class MapElitesArchive {
     private static final int DEFAULT_SIZE = 10;
-    private final Function<DungeonTree, Float> xAxisFunction;
-    private final Function<DungeonTree, Float> yAxisFunction;
-    private final Function<DungeonTree, Float> fitnessFunction;
+    private static final int GOOD_TREE_ATTEMPTS = 16;
+    private static final Pattern GRID_FILE = Pattern.compile("x_(\\d+)_y_(\\d+)\\.json");
+    private static final Pattern CELL_FILE = Pattern.compile("cell_(\\d+)\\.json");
+    private final Descriptor[] descriptors;
+    private final ArchiveCells cells;
+    private final Function<TreeFeatures, Float> fitnessFunction;
+    // cheap upper bound of fitnessFunction, null to always evaluate in full
+    private final Function<TreeFeatures, Float> fitnessBound;
+
+    // one slot per cell; every cell is replaced with compare-and-set, so writers never lock and readers never wait
+    private final AtomicReferenceArray<ArchiveRecord> archive;
+    // occupied cells, for picking parents
+    private EliteSampler sampler;
+
+    // evaluations by stage, for all archives
+    private static final LongAdder evaluated = new LongAdder();
+    private static final LongAdder boundedToZero = new LongAdder();
+    private static final LongAdder outranked = new LongAdder();
 
-    private final float min_x;
-    private final float max_x;
-    private final float min_y;
-    private final float max_y;
-    private final ArchiveRecord[][] archive;
-    private int size;
+    public MapElitesArchive(
+            Function<TreeFeatures, Float> xAxisFunction,
+            Function<TreeFeatures, Float> yAxisFunction,
+            Function<TreeFeatures, Float> fitnessFunction,
+            float min_x, float max_x, float min_y, float max_y
+    ) {
+        this(xAxisFunction, yAxisFunction, fitnessFunction, null, min_x, max_x, min_y, max_y);
+    }
 
     public MapElitesArchive(
-            Function<DungeonTree, Float> xAxisFunction,
-            Function<DungeonTree, Float> yAxisFunction,
-            Function<DungeonTree, Float> fitnessFunction,
+            Function<TreeFeatures, Float> xAxisFunction,
+            Function<TreeFeatures, Float> yAxisFunction,
+            Function<TreeFeatures, Float> fitnessFunction,
+            Function<TreeFeatures, Float> fitnessBound,
             float min_x, float max_x, float min_y, float max_y
     ) {
         this(
                 xAxisFunction,
                 yAxisFunction,
                 fitnessFunction,
+                fitnessBound,
                 min_x, max_x, min_y, max_y,
                 DEFAULT_SIZE
         );
     }
 
+    // square size x size grid over two descriptors
     public MapElitesArchive(
-            Function<DungeonTree, Float> xAxisFunction,
-            Function<DungeonTree, Float> yAxisFunction,
-            Function<DungeonTree, Float> fitnessFunction,
+            Function<TreeFeatures, Float> xAxisFunction,
+            Function<TreeFeatures, Float> yAxisFunction,
+            Function<TreeFeatures, Float> fitnessFunction,
+            Function<TreeFeatures, Float> fitnessBound,
             float min_x, float max_x, float min_y, float max_y,
             int size
     ) {
-        this.size = size;
-        archive = new ArchiveRecord[size][size];
-        this.xAxisFunction = xAxisFunction;
-        this.yAxisFunction = yAxisFunction;
+        this(
+                List.of(
+                        new Descriptor("x", xAxisFunction, min_x, max_x),
+                        new Descriptor("y", yAxisFunction, min_y, max_y)
+                ),
+                new GridCells(size, size),
+                fitnessFunction,
+                fitnessBound
+        );
+    }
+
+    public MapElitesArchive(
+            List<Descriptor> descriptors,
+            ArchiveCells cells,
+            Function<TreeFeatures, Float> fitnessFunction,
+            Function<TreeFeatures, Float> fitnessBound
+    ) {
+        if (descriptors.size() != cells.dimensions()) {
+            throw new IllegalArgumentException(
+                    descriptors.size() + " descriptors for " + cells.dimensions() + "-dimensional cells");
+        }
+        this.descriptors = descriptors.toArray(new Descriptor[0]);
+        this.cells = cells;
         this.fitnessFunction = fitnessFunction;
-        this.max_x = max_x;
-        this.min_x = min_x;
-        this.max_y = max_y;
-        this.min_y = min_y;
+        this.fitnessBound = fitnessBound;
+        archive = new AtomicReferenceArray<>(cells.cellCount());
+        sampler = new EliteSampler(Selection.UNIFORM, archive);
     }
 
-    public void populateArchive(int numIndividuals) {
+    // how selectCell picks parents; set it before evolving, not while other threads use the archive
+    public void setSelection(Selection selection) {
+        EliteSampler newSampler = new EliteSampler(selection, archive);
+        for (int i = 0; i < sampler.size(); i++) {
+            newSampler.onElite(sampler.cellAt(i));
+        }
+        sampler = newSampler;
+    }
+
+    public void populateArchive(int numIndividuals, Rng rng) {
         for (int i = 0; i < numIndividuals; i++) {
             DungeonTree tree = new DungeonTree();
             tree.generateRandomTree(
-                    (int) (Constants.MIN_DEPTH + Math.random() * (Constants.MAX_DEPTH - Constants.MIN_DEPTH)),
-                    (float) (0.25 + Math.random() * 0.5),
-                    (float) (0.5 + Math.random() * 0.5)
+                    (int) (Constants.MIN_DEPTH + rng.nextDouble() * (Constants.MAX_DEPTH - Constants.MIN_DEPTH)),
+                    (float) (0.25 + rng.nextDouble() * 0.5),
+                    (float) (0.5 + rng.nextDouble() * 0.5),
+                    rng
             );
-            addToArchive(tree);
+            addToArchive(CompactTree.of(tree));
         }
     }
 
-    private int mapToIndex(float value, float min, float max) {
-        if (value < min || value > max) {
-            return -1; // outside archive bounds
+    Evaluation evaluate(CompactTree tree) {
+        return evaluate(TreeFeatures.of(tree));
+    }
+
+    // descriptors and fitness only - does not write the archive, so it's safe to call from many threads.
+    // Staged: descriptors, then the cell, then the fitness bound, and the full fitness (with its layout check)
+    // only if the candidate can still take the cell. Null if it's outside the archive or can't win
+    Evaluation evaluate(TreeFeatures features) {
+        float[] point = new float[descriptors.length];
+        for (int d = 0; d < descriptors.length; d++) {
+            point[d] = descriptors[d].normalize(features);
+            if (point[d] < 0f) {
+                return null; // outside archive bounds
+            }
         }
-        float normalized = (value - min) / (max - min); // [0,1]
-        int index = (int) (normalized * size);
-        return Math.min(index, size - 1);
+        int cell = cells.cellOf(point);
+
+        if (fitnessBound != null) {
+            float bound = fitnessBound.apply(features);
+            if (bound == 0f) {
+                // fitness can only be 0 - no need to run the layout check to know it
+                boundedToZero.increment();
+                return new Evaluation(cell, new ArchiveRecord(features, 0f));
+            }
+            ArchiveRecord incumbent = archive.get(cell);
+            // ties replace the incumbent in offer(), so only a strictly lower bound is a sure loss
+            if (incumbent != null && bound < incumbent.getFitness()) {
+                outranked.increment();
+                return null;
+            }
+        }
+
+        evaluated.increment();
+        float newQuality = fitnessFunction.apply(features);
+        return new Evaluation(cell, new ArchiveRecord(features, newQuality));
     }
 
-    void addToArchive(DungeonTree tree) {
-        float xValue = xAxisFunction.apply(tree);
-        float yValue = yAxisFunction.apply(tree);
+    void addToArchive(CompactTree tree) {
+        addToArchive(TreeFeatures.of(tree));
+    }
 
-        int xIndex = mapToIndex(xValue, min_x, max_x);
-        int yIndex = mapToIndex(yValue, min_y, max_y);
+    // true if the tree became the elite of its cell
+    boolean addToArchive(TreeFeatures features) {
+        return add(evaluate(features));
+    }
 
-        if (xIndex < 0 || yIndex < 0) {
-            return;
+    // null is an evaluation that can't get in
+    boolean add(Evaluation evaluation) {
+        return evaluation != null && offer(evaluation.getCell(), evaluation.getRecord());
+    }
+
+    // retries only when another thread replaced the cell in between; a weaker record gives up immediately
+    private boolean offer(int cell, ArchiveRecord record) {
+        while (true) {
+            ArchiveRecord existingRecord = archive.get(cell);
+            if (existingRecord != null &&
+                    record.getFitness() < existingRecord.getFitness()) {
+                return false;
+            }
+            if (archive.compareAndSet(cell, existingRecord, record)) {
+                sampler.onElite(cell);
+                return true;
+            }
         }
+    }
 
-        ArchiveRecord existingRecord = archive[xIndex][yIndex];
-        float newQuality = fitnessFunction.apply(tree);
+    // both archives must share descriptors and cells - records are moved cell to cell without re-evaluation
+    void acceptMigrants(MapElitesArchive source, int count, Rng rng) {
+        for (int i = 0; i < count; i++) {
+            int cell = cells.randomCell(rng);
+            ArchiveRecord rec = source.archive.get(cell);
+            if (rec != null) {
+                offer(cell, rec);
+            }
+        }
+    }
 
-        if (existingRecord == null ||
-                newQuality >= existingRecord.getFitness()) {
-            archive[xIndex][yIndex] = new ArchiveRecord(tree, newQuality);
+    void merge(MapElitesArchive other) {
+        for (int cell = 0; cell < archive.length(); cell++) {
+            ArchiveRecord rec = other.archive.get(cell);
+            if (rec != null) {
+                offer(cell, rec);
+            }
         }
     }
 
-     public DungeonTree getRandomTree() {
-        int xIndex = (int)(Math.random() * size);
-        int yIndex = (int)(Math.random() * size);
-        ArchiveRecord rec = archive[xIndex][yIndex];
-        if (rec != null) {
-            return rec.getTree();
+    // an occupied cell picked by the selection, -1 while the archive is empty
+    int selectCell(Rng rng) {
+        return sampler.select(rng);
+    }
+
+    TreeFeatures getFeatures(int cell) {
+        return archive.get(cell).getFeatures();
+    }
+
+    // feedback for curiosity selection: whether an offspring of the elite in parentCell got into the archive
+    void reportOffspring(int parentCell, boolean added) {
+        sampler.onOffspring(parentCell, added);
+    }
+
+    // ------------------ checkpoints ------------------
+    // call between generations, while no other thread writes the archive
+    EliteSampler.State samplerState() {
+        return sampler.state();
+    }
+
+    ArchiveRecord getRecord(int cell) {
+        return archive.get(cell);
+    }
+
+    // puts the records back without evaluating them; records[i] goes to state.cells[i]
+    void restore(EliteSampler.State state, ArchiveRecord[] records) {
+        if (state.cells.length != records.length) {
+            throw new IllegalArgumentException("Expected a record for every occupied cell");
+        }
+        for (int i = 0; i < records.length; i++) {
+            archive.set(state.cells[i], records[i]);
         }
-        return getRandomTree();
+        sampler = EliteSampler.restore(state, archive);
     }
 
-    public DungeonTree getRandomGoodTree() {
-        int width = archive.length;
-        int height = archive[0].length;
+    // the grid of a two-descriptor archive, for the methods that address cells by (x, y)
+    private GridCells grid2D() {
+        if (cells instanceof GridCells grid && grid.dimensions() == 2) {
+            return grid;
+        }
+        throw new IllegalStateException("Archive is not a 2D grid: " + cells);
+    }
 
-        int startX = (int)(Math.random() * width);
-        int startY = (int)(Math.random() * height);
+    private boolean isGrid2D() {
+        return cells instanceof GridCells grid && grid.dimensions() == 2;
+    }
 
-        for (int dy = 0; dy < height; dy++) {
-            for (int dx = 0; dx < width; dx++) {
-                int x = (startX + dx) % width;
-                int y = (startY + dy) % height;
+    public int cellCount() {
+        return archive.length();
+    }
 
-                ArchiveRecord rec = archive[x][y];
-                if (rec != null && rec.getFitness() > 0.0f) {
-                    System.out.println("Selected tree at (" + x + ", " + y + ") with fitness " + rec.getFitness());
-                    return rec.getTree();
-                }
+    // a uniformly random elite with fitness above 0, null if there is none.
+    // Usually the first draws hit one; an archive of mostly failed elites falls back to a scan of the occupied cells
+    public DungeonTree getRandomGoodTree(Rng rng) {
+        int count = sampler.size();
+        if (count == 0) {
+            return null;
+        }
+        for (int attempt = 0; attempt < GOOD_TREE_ATTEMPTS; attempt++) {
+            ArchiveRecord rec = archive.get(sampler.cellAt(rng.nextInt(count)));
+            if (rec.getFitness() > 0.0f) {
+                return rec.getTree().toDungeonTree();
+            }
+        }
+        int start = rng.nextInt(count);
+        for (int i = 0; i < count; i++) {
+            ArchiveRecord rec = archive.get(sampler.cellAt((start + i) % count));
+            if (rec.getFitness() > 0.0f) {
+                return rec.getTree().toDungeonTree();
             }
         }
-
-        System.out.println("No good tree found in archive.");
         return null;
     }
 
-
     public DungeonTree getTreeAt(int xIndex, int yIndex) {
-        if (xIndex < 0 || xIndex >= size || yIndex < 0 || yIndex >= size) {
+        return getTreeInCell(grid2D().cellAt(xIndex, yIndex));
+    }
+
+    public DungeonTree getTreeInCell(int cell) {
+        if (cell < 0 || cell >= archive.length()) {
             throw new IndexOutOfBoundsException("Index out of bounds for archive");
         }
-        ArchiveRecord rec = archive[xIndex][yIndex];
+        ArchiveRecord rec = archive.get(cell);
         if (rec != null) {
-            return rec.getTree();
+            return rec.getTree().toDungeonTree();
         }
         return null;
     }
 
     public void print() {
-        for (int y = size - 1; y >= 0; y--) {
-            for (int x = 0; x < size; x++) {
-                ArchiveRecord rec = archive[x][y];
+        if (!isGrid2D()) {
+            for (int cell = 0; cell < archive.length(); cell++) {
+                ArchiveRecord rec = archive.get(cell);
+                if (rec != null) {
+                    System.out.printf("%5d: [%.2f]%n", cell, rec.getFitness());
+                }
+            }
+            return;
+        }
+        GridCells grid = grid2D();
+        for (int y = grid.bins(1) - 1; y >= 0; y--) {
+            for (int x = 0; x < grid.bins(0); x++) {
+                ArchiveRecord rec = archive.get(grid.cellAt(x, y));
                 if (rec != null) {
                     System.out.printf("[%.2f] ", rec.getFitness());
                 } else {
@@ -175,64 +335,67 @@ public class MapElitesArchive {
 
     private void createArchiveInfo(File baseDir, int generationCount) {
         StringBuilder sb = new StringBuilder();
+        int cellCount = archive.length();
 
         sb.append("Generations: ").append(generationCount).append("\n");
         sb.append("Fitness: ").append("quality-control").append("\n");
-        sb.append("X function: ").append("risk").append("\n");
-        sb.append("X bounds: ").append("min: ").append(min_x).append(" max: ").append(max_x).append("\n");
-        sb.append("Y function: ").append("branching").append("\n");
-        sb.append("Y bounds: ").append("min: ").append(min_y).append(" max: ").append(max_y).append("\n");
-        sb.append("Buckets: ").append(size * size).append(" (").append(size).append(" per line)\n");
+        for (Descriptor descriptor : descriptors) {
+            sb.append("Descriptor: ").append(descriptor.getName())
+                    .append(" min: ").append(descriptor.getMin())
+                    .append(" max: ").append(descriptor.getMax()).append("\n");
+        }
+        sb.append("Buckets: ").append(cellCount).append(" (").append(cells).append(")\n");
 
         int filledBuckets = 0;
         int validBuckets = 0;
 
-        for (int y = 0; y < size; y++) {
-            for (int x = 0; x < size; x++) {
-                ArchiveRecord rec = archive[x][y];
-                if (rec != null) {
-                    filledBuckets++;
-                    if (rec.getFitness() > 0.0) {
-                        validBuckets++;
-                    }
+        for (int cell = 0; cell < cellCount; cell++) {
+            ArchiveRecord rec = archive.get(cell);
+            if (rec != null) {
+                filledBuckets++;
+                if (rec.getFitness() > 0.0) {
+                    validBuckets++;
                 }
             }
         }
 
-        double filledPercent = 100.0 * filledBuckets / (size * size);
-        double validPercent = 100.0 * validBuckets / (size * size);
+        double filledPercent = 100.0 * filledBuckets / cellCount;
+        double validPercent = 100.0 * validBuckets / cellCount;
 
         sb.append("Filled buckets: ")
                 .append(filledBuckets)
                 .append(" / ")
-                .append(size * size)
+                .append(cellCount)
                 .append(String.format(" (%.0f%%)", filledPercent))
                 .append("\n");
 
         sb.append("Valid buckets (fitness>0.0): ")
                 .append(validBuckets)
                 .append(" / ")
-                .append(size * size)
+                .append(cellCount)
                 .append(String.format(" (%.0f%%)", validPercent))
                 .append("\n\n");
 
-        sb.append("Archive map:\n    ");
-        for (int x = 0; x < size; x++) {
-            sb.append(String.format("  %2d   ", x));
-        }
-        sb.append("\n");
+        if (isGrid2D()) {
+            GridCells grid = grid2D();
+            sb.append("Archive map:\n    ");
+            for (int x = 0; x < grid.bins(0); x++) {
+                sb.append(String.format("  %2d   ", x));
+            }
+            sb.append("\n");
 
-        for (int y = 0; y < size; y++) {
-            sb.append(String.format("%2d ", y));
-            for (int x = 0; x < size; x++) {
-                ArchiveRecord rec = archive[x][y];
-                if (rec != null) {
-                    sb.append(String.format("[%.2f] ", rec.getFitness()));
-                } else {
-                    sb.append("[----] ");
+            for (int y = 0; y < grid.bins(1); y++) {
+                sb.append(String.format("%2d ", y));
+                for (int x = 0; x < grid.bins(0); x++) {
+                    ArchiveRecord rec = archive.get(grid.cellAt(x, y));
+                    if (rec != null) {
+                        sb.append(String.format("[%.2f] ", rec.getFitness()));
+                    } else {
+                        sb.append("[----] ");
+                    }
                 }
+                sb.append("\n");
             }
-            sb.append("\n");
         }
 
         File infoFile = new File(baseDir, "info.txt");
@@ -246,6 +409,14 @@ public class MapElitesArchive {
         }
     }
 
+    // x_XX_y_YY.json for a 2D grid, which is what GridGenerator loads by coordinates; cell_NNNN.json otherwise
+    private String fileName(int cell) {
+        if (isGrid2D()) {
+            GridCells grid = grid2D();
+            return String.format("x_%02d_y_%02d.json", grid.coordinate(cell, 0), grid.coordinate(cell, 1));
+        }
+        return String.format("cell_%04d.json", cell);
+    }
 
     public String serializeArchive(int generationCount) {
         String timestampDir = nowAsDirName();
@@ -256,27 +427,187 @@ public class MapElitesArchive {
         }
 
         createArchiveInfo(baseDir, generationCount);
-        for (int y = size - 1; y >= 0; y--) {
-            for (int x = 0; x < size; x++) {
-                ArchiveRecord rec = archive[x][y];
-                if (rec != null) {
-                    File out = new File(
-                            baseDir,
-                            String.format("x_%02d_y_%02d.json", x, y)
+        writeBinary(new File(baseDir, BinaryArchive.FILE_NAME));
+        // one file per cell, so the cells are written in parallel
+        IntStream.range(0, archive.length()).parallel().forEach(cell -> {
+            ArchiveRecord rec = archive.get(cell);
+            if (rec != null) {
+                File out = new File(baseDir, fileName(cell));
+
+                try {
+                    DungeonTreeSerializer.writeToFile(rec.getTree().toDungeonTree(), rec.fitness, out);
+                } catch (IOException e) {
+                    throw new RuntimeException(
+                            "Failed to write " + out.getAbsolutePath(), e
                     );
-
-                    try {
-                        DungeonTreeSerializer.writeToFile(rec.tree, rec.fitness, out);
-                    } catch (IOException e) {
-                        throw new RuntimeException(
-                                "Failed to write " + out.getAbsolutePath(), e
-                        );
-                    }
                 }
             }
-        }
+        });
         return timestampDir;
     }
 
+    // cell of a file written by serializeArchive, -1 for other files
+    private int cellOfFile(String name) {
+        Matcher grid = GRID_FILE.matcher(name);
+        if (grid.matches()) {
+            int x = Integer.parseInt(grid.group(1));
+            int y = Integer.parseInt(grid.group(2));
+            return isGrid2D() && x < grid2D().bins(0) && y < grid2D().bins(1) ? grid2D().cellAt(x, y) : -1;
+        }
+        Matcher cell = CELL_FILE.matcher(name);
+        if (cell.matches()) {
+            int index = Integer.parseInt(cell.group(1));
+            return index < archive.length() ? index : -1;
+        }
+        return -1;
+    }
+
+    // puts the elites written by serializeArchive back, exactly and with their fitness, from archive.bin.
+    // Records are rebuilt in parallel, then offered in cell order, so the archive doesn't depend on which finished first
+    public void loadFrom(File dir) {
+        File binaryFile = new File(dir, BinaryArchive.FILE_NAME);
+        if (binaryFile.isFile()) {
+            BinaryArchive binary = BinaryArchive.open(binaryFile);
+            if (!binary.isRerooted()) {
+                loadFrom(binary);
+                return;
+            }
+        }
+        loadRerootedFrom(dir);
+    }
+
+    private void loadFrom(BinaryArchive binary) {
+        if (binary.cellCount() != archive.length()) {
+            throw new IllegalStateException("Binary archive has " + binary.cellCount() + " cells, archive " + archive.length());
+        }
+        ArchiveRecord[] loaded = new ArchiveRecord[archive.length()];
+        IntStream.range(0, loaded.length).parallel().forEach(cell -> {
+            if (binary.has(cell)) {
+                loaded[cell] = new ArchiveRecord(TreeFeatures.of(binary.getCompactTree(cell)), binary.getFitness(cell));
+            }
+        });
+        for (int cell = 0; cell < loaded.length; cell++) {
+            if (loaded[cell] != null) {
+                offer(cell, loaded[cell]);
+            }
+        }
+    }
+
+    // older folders only have the JSON trees, rerooted at Start, which changes their descriptors and fitness:
+    // every tree is evaluated again and goes to the cell it belongs to now, so some are lost to collisions
+    private void loadRerootedFrom(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new RuntimeException("Cannot list directory: " + dir);
+        }
+        Evaluation[] loaded = new Evaluation[archive.length()];
+        Arrays.stream(files).parallel().forEach(file -> {
+            int cell = cellOfFile(file.getName());
+            if (cell < 0) {
+                return;
+            }
+            try {
+                DungeonTreeSerializer.SavedTree saved = DungeonTreeSerializer.read(file);
+                loaded[cell] = evaluate(CompactTree.of(saved.getTree()));
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read " + file.getAbsolutePath(), e);
+            }
+        });
+        for (Evaluation evaluation : loaded) {
+            add(evaluation);
+        }
+
+        long read = Arrays.stream(files).filter(file -> cellOfFile(file.getName()) >= 0).count();
+        int kept = 0;
+        for (Evaluation evaluation : loaded) {
+            // null if outside the archive bounds now
+            if (evaluation != null && archive.get(evaluation.getCell()) == evaluation.getRecord()) kept++;
+        }
+        if (kept < read) {
+            System.out.printf("Loaded %d of %d elites from %s, %d dropped: without archive.bin the rerooted trees "
+                    + "were evaluated again%n", kept, read, dir, read - kept);
+        }
+    }
+
+    // the whole archive in one file, see BinaryArchive; a 2D grid keeps its (x, y) cells, other archives are one row.
+    // Binary cells are numbered like the archive's, and the elites are stored exactly, not rerooted
+    public void writeBinary(File file) {
+        int cellCount = archive.length();
+        CompactTree[] trees = new CompactTree[cellCount];
+        float[] fitness = new float[cellCount];
+        for (int cell = 0; cell < cellCount; cell++) {
+            ArchiveRecord rec = archive.get(cell);
+            if (rec != null) {
+                trees[cell] = rec.getTree();
+                fitness[cell] = rec.getFitness();
+            }
+        }
+        if (isGrid2D()) {
+            GridCells grid = grid2D();
+            BinaryArchive.write(file, grid.bins(0), grid.bins(1), trees, fitness, false);
+        } else {
+            BinaryArchive.write(file, cellCount, 1, trees, fitness, false);
+        }
+    }
+
     // todo: add functions like getEasyLevel(), getHardLevel(), etc.
+
+    public static void printStats() {
+        long full = evaluated.sum();
+        long zero = boundedToZero.sum();
+        long skipped = outranked.sum();
+        long total = full + zero + skipped;
+        System.out.printf("Archive evaluations: %d full, %d bounded to 0, %d skipped as outranked (%.1f%% without layout check)%n",
+                full, zero, skipped, total == 0 ? 0f : 100f * (zero + skipped) / total);
+    }
+
+    // ------------------ test ------------------
+    // stress test: many writers hammering few cells must never lose the best record of a cell
+    public static void main(String[] args) throws InterruptedException {
+        int threadsNum = 8;
+        int insertsPerThread = 250_000;
+        MapElitesArchive archive = new MapElitesArchive(
+                tree -> 0f, tree -> 0f, tree -> 0f, null,
+                0f, 1f, 0f, 1f,
+                3
+        );
+        int cells = archive.cellCount();
+        float[][] bestOffered = new float[threadsNum][cells];
+
+        Rng rng = new Rng(42);
+        Thread[] threads = new Thread[threadsNum];
+        for (int t = 0; t < threadsNum; t++) {
+            float[] best = bestOffered[t];
+            java.util.Arrays.fill(best, -1f);
+            Rng random = rng.split();
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < insertsPerThread; i++) {
+                    int cell = random.nextInt(cells);
+                    float fitness = random.nextFloat();
+                    best[cell] = Math.max(best[cell], fitness);
+                    archive.offer(cell, new ArchiveRecord(null, fitness));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        int lost = 0;
+        for (int cell = 0; cell < cells; cell++) {
+            float best = -1f;
+            for (float[] offered : bestOffered) {
+                best = Math.max(best, offered[cell]);
+            }
+            ArchiveRecord rec = archive.archive.get(cell);
+            if (rec == null || rec.getFitness() != best) {
+                lost++;
+            }
+        }
+        System.out.println("Inserts: " + threadsNum * insertsPerThread + ", lost elite updates: " + lost + " / " + cells);
+        if (lost > 0) {
+            throw new IllegalStateException("Concurrent inserts lost " + lost + " elite updates");
+        }
+    }
 }
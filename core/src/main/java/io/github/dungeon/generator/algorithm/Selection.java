@@ -0,0 +1,12 @@
+package io.github.dungeon.generator.algorithm;
+
+
+// how MapElites picks parents among the elites of the archive
+public enum Selection {
+    // every elite is equally likely, O(1)
+    UNIFORM,
+    // proportional to fitness, O(log n); uniform while every elite has fitness 0
+    FITNESS,
+    // proportional to the elite's curiosity score: up when its offspring get into the archive, down when not, O(log n)
+    CURIOSITY
+}
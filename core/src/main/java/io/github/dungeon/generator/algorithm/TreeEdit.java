@@ -0,0 +1,68 @@
+package io.github.dungeon.generator.algorithm;
+
+
+import io.github.dungeon.generator.tree.CompactTree;
+import io.github.dungeon.generator.tree.NodeTypes;
+
+/**
+ * What a mutation changed in a CompactTree, so TreeFeatures can update the parent's features
+ * instead of traversing the offspring. Everything the offspring tree still holds is read from it,
+ * only the values the edit overwrote are kept here.
+ */
+final class TreeEdit {
+    enum Type {
+        // the tree is unchanged
+        NONE,
+        // node got a new type; old* hold the previous one
+        RETYPE,
+        // node and other swapped their types
+        SWAP,
+        // node is a new leaf
+        ADD_LEAF,
+        // the leaf at index node was removed from other; old* hold its type, later indices moved down by one
+        REMOVE_LEAF,
+        // anything else, features are recomputed
+        RESTRUCTURE
+    }
+
+    static final TreeEdit NONE = new TreeEdit(Type.NONE, CompactTree.NO_NODE, CompactTree.NO_NODE, null, 0, 0);
+    static final TreeEdit RESTRUCTURE = new TreeEdit(Type.RESTRUCTURE, CompactTree.NO_NODE, CompactTree.NO_NODE, null, 0, 0);
+
+    final Type type;
+    final int node;
+    final int other;
+    final NodeTypes.Kind oldKind;
+    final float oldRisk;
+    final float oldReward;
+
+    private TreeEdit(Type type, int node, int other, NodeTypes.Kind oldKind, float oldRisk, float oldReward) {
+        this.type = type;
+        this.node = node;
+        this.other = other;
+        this.oldKind = oldKind;
+        this.oldRisk = oldRisk;
+        this.oldReward = oldReward;
+    }
+
+    // ------------------ edits ------------------
+    // call before changing the type
+    static TreeEdit retype(CompactTree tree, int node) {
+        return new TreeEdit(Type.RETYPE, node, CompactTree.NO_NODE, tree.kind(node), tree.risk(node), tree.reward(node));
+    }
+
+    static TreeEdit swap(int a, int b) {
+        return a == b ? NONE : new TreeEdit(Type.SWAP, a, b, null, 0, 0);
+    }
+
+    static TreeEdit addLeaf(int leaf) {
+        return leaf == CompactTree.NO_NODE ? NONE : new TreeEdit(Type.ADD_LEAF, leaf, CompactTree.NO_NODE, null, 0, 0);
+    }
+
+    // call before removing; only a leaf can be updated, a bigger subtree is a restructure
+    static TreeEdit removeChild(CompactTree tree, int parent, int child) {
+        if (!tree.isLeaf(child)) {
+            return RESTRUCTURE;
+        }
+        return new TreeEdit(Type.REMOVE_LEAF, child, parent, tree.kind(child), tree.risk(child), tree.reward(child));
+    }
+}
@@ -0,0 +1,273 @@
+package io.github.dungeon.generator.algorithm;
+
+
+import io.github.dungeon.generator.tree.CompactTree;
+import io.github.dungeon.generator.tree.DungeonTree;
+import io.github.dungeon.generator.tree.NodeTypes;
+import io.github.dungeon.generator.tree.TreeHash;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Everything fitness terms and archive descriptors need from a tree, collected in a single traversal,
+ * or updated from the parent's features when the tree is a mutation of it (see TreeEdit) -
+ * then the cost is the depth of the edited node instead of the size of the tree.
+ * Main path means the path from the root down to the first Exit in preorder, like DungeonTree.collectNodesMainPath.
+ */
+@Getter
+public final class TreeFeatures {
+    static final int TYPES_NUM = NodeTypes.Kind.values().length;
+
+    private static final LongAdder UPDATED = new LongAdder();
+    private static final LongAdder TRAVERSED = new LongAdder();
+
+    private final CompactTree tree;
+    private int nodeCount = 0;
+    // indexed by NodeTypes.Kind ordinal
+    private final int[] typeHistogram = new int[TYPES_NUM];
+
+    // start and exit are the last ones in preorder, the counts tell if they are unique
+    private int start = CompactTree.NO_NODE;
+    private int exit = CompactTree.NO_NODE;
+    private int startCount = 0;
+    private int exitCount = 0;
+    // end of the main path
+    private int firstExit = CompactTree.NO_NODE;
+    private int startExitDistance = -1;
+
+    private int mainPathLength = 0;
+    private double mainPathRiskSum = 0;
+    private double mainPathRewardSum = 0;
+
+    private int innerNodesCount = 0;
+    private int childrenSum = 0;
+
+    private double riskSum = 0;
+    private double rewardSum = 0;
+
+    private long canonicalHash;
+    // canonical hash of every node's subtree, so an edit only rehashes the way up to the root
+    @Getter(AccessLevel.NONE)
+    private long[] subtreeHashes;
+
+    private int startDepth;
+    private int exitDepth;
+
+    private TreeFeatures(CompactTree tree) {
+        this.tree = tree;
+        this.subtreeHashes = new long[tree.size()];
+    }
+
+    private TreeFeatures(TreeFeatures parent, CompactTree tree) {
+        this.tree = tree;
+        nodeCount = parent.nodeCount;
+        System.arraycopy(parent.typeHistogram, 0, typeHistogram, 0, TYPES_NUM);
+        start = parent.start;
+        exit = parent.exit;
+        startCount = parent.startCount;
+        exitCount = parent.exitCount;
+        firstExit = parent.firstExit;
+        startExitDistance = parent.startExitDistance;
+        mainPathLength = parent.mainPathLength;
+        mainPathRiskSum = parent.mainPathRiskSum;
+        mainPathRewardSum = parent.mainPathRewardSum;
+        innerNodesCount = parent.innerNodesCount;
+        childrenSum = parent.childrenSum;
+        riskSum = parent.riskSum;
+        rewardSum = parent.rewardSum;
+        startDepth = parent.startDepth;
+        exitDepth = parent.exitDepth;
+        // a removed leaf still needs the old length to shift the tail down
+        subtreeHashes = Arrays.copyOf(parent.subtreeHashes, Math.max(parent.subtreeHashes.length, tree.size()));
+    }
+
+    public static TreeFeatures of(CompactTree tree) {
+        TRAVERSED.increment();
+        TreeFeatures features = new TreeFeatures(tree);
+        features.canonicalHash = features.visit(0, 0, 0, 0);
+        if (features.start != CompactTree.NO_NODE && features.exit != CompactTree.NO_NODE) {
+            features.startExitDistance = features.distance(features.start, features.startDepth, features.exit, features.exitDepth);
+        }
+        return features;
+    }
+
+    public static TreeFeatures of(DungeonTree tree) {
+        return of(CompactTree.of(tree));
+    }
+
+    // ------------------ traversal ------------------
+    // returns canonical hash of the subtree; path sums cover ancestors of node
+    private long visit(int node, int depth, double pathRisk, double pathReward) {
+        NodeTypes.Kind kind = tree.kind(node);
+        float risk = tree.risk(node);
+        float reward = tree.reward(node);
+        nodeCount++;
+        typeHistogram[kind.ordinal()]++;
+        riskSum += risk;
+        rewardSum += reward;
+        pathRisk += risk;
+        pathReward += reward;
+
+        if (kind == NodeTypes.Kind.START) {
+            start = node;
+            startDepth = depth;
+            startCount++;
+        } else if (kind == NodeTypes.Kind.EXIT) {
+            exit = node;
+            exitDepth = depth;
+            if (exitCount++ == 0) {
+                firstExit = node;
+                mainPathLength = depth + 1;
+                mainPathRiskSum = pathRisk;
+                mainPathRewardSum = pathReward;
+            }
+        }
+
+        int children = tree.childCount(node);
+        long a = children > 0 ? visit(tree.child(node, 0), depth + 1, pathRisk, pathReward) : 0;
+        long b = children > 1 ? visit(tree.child(node, 1), depth + 1, pathRisk, pathReward) : 0;
+        long c = children > 2 ? visit(tree.child(node, 2), depth + 1, pathRisk, pathReward) : 0;
+        if (children > 0) {
+            innerNodesCount++;
+            childrenSum += children;
+        }
+        long hash = TreeHash.combine(TreeHash.typeHash(kind, risk, reward), a, b, c);
+        subtreeHashes[node] = hash;
+        return hash;
+    }
+
+    // ------------------ update ------------------
+    // features of tree, which is parent's tree after the edit. Start and Exit are where the main path, the distance
+    // and the uniqueness come from, so an edit that creates, removes or moves one of them is traversed in full
+    static TreeFeatures update(TreeFeatures parent, CompactTree tree, TreeEdit edit) {
+        switch (edit.type) {
+            case NONE:
+                // same content, the parent's tree can stand in for the copy
+                return parent;
+            case RETYPE:
+                if (isStartOrExit(edit.oldKind) || tree.isStartOrExit(edit.node)) break;
+                UPDATED.increment();
+                return new TreeFeatures(parent, tree).retyped(edit.node, edit.oldKind, edit.oldRisk, edit.oldReward);
+            case SWAP:
+                if (tree.isStartOrExit(edit.node) || tree.isStartOrExit(edit.other)) break;
+                UPDATED.increment();
+                // the old type of each is the new type of the other
+                return new TreeFeatures(parent, tree)
+                        .retyped(edit.node, tree.kind(edit.other), tree.risk(edit.other), tree.reward(edit.other))
+                        .retyped(edit.other, tree.kind(edit.node), tree.risk(edit.node), tree.reward(edit.node));
+            case ADD_LEAF:
+                if (tree.isStartOrExit(edit.node)) break;
+                UPDATED.increment();
+                return new TreeFeatures(parent, tree).withLeaf(edit.node);
+            case REMOVE_LEAF:
+                // the last child moves into the hole, which reorders preorder - harmless while Start and Exit are unique
+                if (isStartOrExit(edit.oldKind) || parent.startCount > 1 || parent.exitCount > 1) break;
+                UPDATED.increment();
+                return new TreeFeatures(parent, tree).withoutLeaf(edit.node, edit.other, edit.oldKind, edit.oldRisk, edit.oldReward);
+            default:
+                break;
+        }
+        return of(tree);
+    }
+
+    private static boolean isStartOrExit(NodeTypes.Kind kind) {
+        return kind == NodeTypes.Kind.START || kind == NodeTypes.Kind.EXIT;
+    }
+
+    private TreeFeatures retyped(int node, NodeTypes.Kind oldKind, float oldRisk, float oldReward) {
+        NodeTypes.Kind kind = tree.kind(node);
+        double riskDelta = tree.risk(node) - (double) oldRisk;
+        double rewardDelta = tree.reward(node) - (double) oldReward;
+        typeHistogram[oldKind.ordinal()]--;
+        typeHistogram[kind.ordinal()]++;
+        riskSum += riskDelta;
+        rewardSum += rewardDelta;
+        if (isOnMainPath(node)) {
+            mainPathRiskSum += riskDelta;
+            mainPathRewardSum += rewardDelta;
+        }
+        rehashToRoot(node);
+        return this;
+    }
+
+    // a new leaf is never on the main path, it has no Exit below it
+    private TreeFeatures withLeaf(int leaf) {
+        int parent = tree.parent(leaf);
+        nodeCount++;
+        typeHistogram[tree.kind(leaf).ordinal()]++;
+        riskSum += tree.risk(leaf);
+        rewardSum += tree.reward(leaf);
+        childrenSum++;
+        if (tree.childCount(parent) == 1) {
+            innerNodesCount++;
+        }
+        rehashToRoot(leaf);
+        return this;
+    }
+
+    // removed is the leaf's index before removal; its parent comes first, so the parent's index didn't move
+    private TreeFeatures withoutLeaf(int removed, int parent, NodeTypes.Kind kind, float risk, float reward) {
+        nodeCount--;
+        typeHistogram[kind.ordinal()]--;
+        riskSum -= risk;
+        rewardSum -= reward;
+        childrenSum--;
+        if (tree.isLeaf(parent)) {
+            innerNodesCount--;
+        }
+        start = shifted(start, removed);
+        exit = shifted(exit, removed);
+        firstExit = shifted(firstExit, removed);
+        System.arraycopy(subtreeHashes, removed + 1, subtreeHashes, removed, tree.size() - removed);
+        rehashToRoot(parent);
+        return this;
+    }
+
+    private static int shifted(int node, int removed) {
+        return node > removed ? node - 1 : node;
+    }
+
+    private boolean isOnMainPath(int node) {
+        for (int cur = firstExit; cur != CompactTree.NO_NODE; cur = tree.parent(cur)) {
+            if (cur == node) return true;
+        }
+        return false;
+    }
+
+    private void rehashToRoot(int node) {
+        for (int cur = node; cur != CompactTree.NO_NODE; cur = tree.parent(cur)) {
+            int children = tree.childCount(cur);
+            subtreeHashes[cur] = TreeHash.combine(
+                    TreeHash.typeHash(tree.kind(cur), tree.risk(cur), tree.reward(cur)),
+                    children > 0 ? subtreeHashes[tree.child(cur, 0)] : 0,
+                    children > 1 ? subtreeHashes[tree.child(cur, 1)] : 0,
+                    children > 2 ? subtreeHashes[tree.child(cur, 2)] : 0
+            );
+        }
+        canonicalHash = subtreeHashes[0];
+    }
+
+    private int distance(int a, int depthA, int b, int depthB) {
+        int dist = 0;
+        for (; depthA > depthB; depthA--, dist++) a = tree.parent(a);
+        for (; depthB > depthA; depthB--, dist++) b = tree.parent(b);
+        while (a != b) {
+            a = tree.parent(a);
+            b = tree.parent(b);
+            dist += 2;
+        }
+        return dist;
+    }
+
+    // ------------------ API ------------------
+    public boolean hasStartAndExitOnce() {
+        return startCount == 1 && exitCount == 1;
+    }
+
+    public static void printStats() {
+        System.out.printf("Tree features: %d updated from the parent, %d traversed%n", UPDATED.sum(), TRAVERSED.sum());
+    }
+}
@@ -3,6 +3,7 @@ package io.github.dungeon.generator.grid;
 
 import io.github.dungeon.common.Constants;
 import io.github.dungeon.common.Coord;
+import io.github.dungeon.common.Rng;
 
 public abstract class Generator {
     protected static int[][] initialGridWalls(int rows, int columns) {
@@ -15,21 +16,21 @@ public abstract class Generator {
         return grid;
     }
 
-    protected static int randomRow(int rows) {
-        return (int) (Math.random() * rows);
+    protected static int randomRow(int rows, Rng rng) {
+        return rng.nextInt(rows);
     }
 
-    protected static int randomColumn(int columns) {
-        return (int) (Math.random() * columns);
+    protected static int randomColumn(int columns, Rng rng) {
+        return rng.nextInt(columns);
     }
 
-    protected static Coord randomCoord(int rows, int columns) {
-        return new Coord(randomColumn(columns), randomRow(rows));
+    protected static Coord randomCoord(int rows, int columns, Rng rng) {
+        return new Coord(randomColumn(columns, rng), randomRow(rows, rng));
     }
 
-    protected static Coord randomCoordInRoom(int min_x, int max_x, int min_y, int max_y) {
-        int x = min_x + (int) (Math.random() * (max_x - min_x));
-        int y = min_y + (int) (Math.random() * (max_y - min_y));
+    protected static Coord randomCoordInRoom(int min_x, int max_x, int min_y, int max_y, Rng rng) {
+        int x = min_x + (int) (rng.nextDouble() * (max_x - min_x));
+        int y = min_y + (int) (rng.nextDouble() * (max_y - min_y));
         return new Coord(x, y);
     }
 }
@@ -4,6 +4,7 @@ package io.github.dungeon.generator.grid;
 import io.github.dungeon.common.Constants;
 import io.github.dungeon.common.Coord;
 import io.github.dungeon.common.Direction;
+import io.github.dungeon.common.Rng;
 import io.github.dungeon.dungeon_game.danger.DangerType;
 import io.github.dungeon.dungeon_game.reward.RewardType;
 import io.github.dungeon.generator.layout.LayoutField;
@@ -11,12 +12,19 @@ import io.github.dungeon.generator.layout.LayoutGenerator;
 import io.github.dungeon.generator.room.Room;
 import io.github.dungeon.generator.room.RoomContents;
 import io.github.dungeon.generator.room.RoomPopulator;
+import io.github.dungeon.generator.tree.BinaryArchive;
 import io.github.dungeon.generator.tree.DungeonTree;
 import io.github.dungeon.generator.tree.DungeonTreeSerializer;
 import io.github.dungeon.generator.tree.NodeTypes;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
 /**
  * This class generates a dungeon layout from a given layout or dungeon tree.
@@ -24,6 +32,16 @@ import java.util.*;
  * exit point, and enemies.
  */
 public class GridGenerator extends Generator {
+    private static final Pattern LEVEL_FILE = Pattern.compile("x_\\d+_y_\\d+\\.json"); // One level of a JSON archive folder
+    private static final Map<String, MappedArchive> ARCHIVES = new ConcurrentHashMap<>(); // Mapped archive files by path
+
+    // archive.bin is replaced by a rename, so a new file key or modification time means the mapping is stale
+    private record MappedArchive(Object fileKey, FileTime modified, BinaryArchive archive) {
+        boolean isCurrent(BasicFileAttributes attributes) {
+            return Objects.equals(fileKey, attributes.fileKey()) && modified.equals(attributes.lastModifiedTime());
+        }
+    }
+
     private final LayoutField[][] layout; // The layout of the dungeon as a 2D array of fields
     private Coord playerStart; // The starting position of the player
     private Coord exitPoint; // The exit point of the dungeon
@@ -177,19 +195,18 @@ public class GridGenerator extends Generator {
      * Generates a dungeon grid from a DungeonTree.
      *
      * @param tree The DungeonTree to generate the dungeon from.
+     * @param rng  Source of randomness for the layout and room contents.
      * @return A GridDefinition object representing the generated dungeon.
      */
-    public static GridDefinition generate(DungeonTree tree, int maxRetries) {
-        LayoutField[][] layout = LayoutGenerator.generateLayout(tree, maxRetries);
-        LayoutGenerator.printLayout(layout);
+    public static GridDefinition generate(DungeonTree tree, int maxRetries, Rng rng) {
+        LayoutField[][] layout = LayoutGenerator.generateLayout(tree, maxRetries, rng);
 
         GridGenerator generator = new GridGenerator(layout);
 
         generator.placeRooms();
         generator.placeCorridors();
         for (Room room : generator.rooms.values()) {
-            RoomPopulator.populate(room);
-            RoomContents contents = room.getRoomContents();
+            RoomContents contents = room.getRoomContents(rng);
             generator.enemies.putAll(contents.getEnemies());
             generator.rewards.putAll(contents.getRewards());
         }
@@ -203,23 +220,92 @@ public class GridGenerator extends Generator {
                 .build();
     }
 
+    // the mapped archive.bin, mapped again if the file was rewritten since
+    private static BinaryArchive mappedArchive(File binary) {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(binary.toPath(), BasicFileAttributes.class);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read " + binary.getAbsolutePath(), e);
+        }
+        return ARCHIVES.compute(binary.getAbsolutePath(), (path, cached) ->
+                cached != null && cached.isCurrent(attributes)
+                        ? cached
+                        : new MappedArchive(attributes.fileKey(), attributes.lastModifiedTime(), BinaryArchive.open(binary))
+        ).archive();
+    }
+
     /**
      * Generates a dungeon grid from a file.
      *
      * @param folder The name of the file containing the DungeonTree.
      * @param x      The x coordinate of the layout file.
      * @param y      The y coordinate of the layout file.
+     * @param rng    Source of randomness for the layout and room contents.
      * @return A GridDefinition object representing the generated dungeon.
      * @throws RuntimeException If the file cannot be read or the dungeon cannot be generated.
      */
-    public static GridDefinition generate(String folder, int x, int y, int maxRetries) {
+    public static GridDefinition generate(String folder, int x, int y, int maxRetries, Rng rng) {
+        File binary = new File("levels/" + folder, BinaryArchive.FILE_NAME);
+        if (binary.isFile()) {
+            DungeonTree tree = mappedArchive(binary).getTree(x, y);
+            if (tree == null) {
+                throw new RuntimeException("No level at (" + x + ", " + y + ") in " + binary);
+            }
+            return generate(tree, maxRetries, rng);
+        }
+
+        // older folders only have the JSON files
         String filename = "levels/" + folder + "/x_" + String.format("%02d", x) + "_y_" + String.format("%02d", y) + ".json";
         File file = new File(filename);
         try {
             DungeonTree tree = DungeonTreeSerializer.readFromFile(file);
-            return generate(tree, maxRetries);
+            return generate(tree, maxRetries, rng);
         } catch (Exception e) {
             throw new RuntimeException("Failed to generate from file: " + filename, e);
         }
     }
+
+    /**
+     * Generates a dungeon grid from a random level of an archive folder. Only occupied cells are drawn,
+     * so the archive's size and gaps don't matter.
+     *
+     * @param folder The name of the archive folder under levels/.
+     * @param rng    Source of randomness for the level, the layout and room contents.
+     * @return A GridDefinition object representing the generated dungeon.
+     * @throws RuntimeException If the folder has no levels or the dungeon cannot be generated.
+     */
+    public static GridDefinition generateRandom(String folder, int maxRetries, Rng rng) {
+        File dir = new File("levels/" + folder);
+        File binary = new File(dir, BinaryArchive.FILE_NAME);
+        if (binary.isFile()) {
+            BinaryArchive archive = mappedArchive(binary);
+            int[] occupied = new int[archive.cellCount()];
+            int count = 0;
+            for (int cell = 0; cell < archive.cellCount(); cell++) {
+                if (archive.has(cell)) {
+                    occupied[count++] = cell;
+                }
+            }
+            if (count == 0) {
+                throw new RuntimeException("No levels in " + binary);
+            }
+            return generate(archive.getTree(occupied[rng.nextInt(count)]), maxRetries, rng);
+        }
+
+        // older folders only have the JSON files
+        File[] files = dir.listFiles((d, name) -> LEVEL_FILE.matcher(name).matches());
+        if (files == null || files.length == 0) {
+            throw new RuntimeException("No levels in " + dir);
+        }
+        // listing order is unspecified
+        Arrays.sort(files);
+        File file = files[rng.nextInt(files.length)];
+        try {
+            DungeonTree tree = DungeonTreeSerializer.readFromFile(file);
+            return generate(tree, maxRetries, rng);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to generate from file: " + file.getPath(), e);
+        }
+    }
 }
@@ -0,0 +1,125 @@
+package io.github.dungeon.generator.layout;
+
+
+import io.github.dungeon.common.Constants;
+import io.github.dungeon.generator.tree.CompactTree;
+import io.github.dungeon.generator.tree.DungeonTree;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Necessary conditions for a tree to fit on the layout grid, cheap enough to check before backtracking.
+ * Failing any of them means no layout exists; passing all of them doesn't guarantee one.
+ */
+public final class LayoutFeasibility {
+    private static final int WIDTH = Constants.MAX_LAYOUT_WIDTH;
+    private static final int HEIGHT = Constants.MAX_LAYOUT_HEIGHT;
+    private static final int CELLS = WIDTH * HEIGHT;
+    // a node with parent and 3 children needs free cells on all sides, one with 3 neighbours can't sit in a corner
+    private static final int INNER_CELLS = Math.max(0, WIDTH - 2) * Math.max(0, HEIGHT - 2);
+    private static final int NON_CORNER_CELLS = CELLS - 4;
+
+    // for every root position LayoutGenerator may pick: cells at grid distance <= k with the parity of k
+    private static final int[][] CELLS_WITHIN = cellsWithin();
+
+    private static final LongAdder checked = new LongAdder();
+    private static final LongAdder rejected = new LongAdder();
+
+    private static int[][] cellsWithin() {
+        int xFrom = WIDTH / 4, xTo = WIDTH / 4 + WIDTH / 2;
+        int yFrom = HEIGHT / 4, yTo = HEIGHT / 4 + HEIGHT / 2;
+        int[][] within = new int[(xTo - xFrom) * (yTo - yFrom)][CELLS];
+
+        int root = 0;
+        for (int rx = xFrom; rx < xTo; rx++) {
+            for (int ry = yFrom; ry < yTo; ry++, root++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    for (int y = 0; y < HEIGHT; y++) {
+                        int dist = Math.abs(x - rx) + Math.abs(y - ry);
+                        for (int k = dist; k < CELLS; k += 2) {
+                            within[root][k]++;
+                        }
+                    }
+                }
+            }
+        }
+        return within;
+    }
+
+    // ------------------ traversal ------------------
+    private static final class Stats {
+        final int[] depthCounts = new int[CELLS];
+        int nodes = 0;
+        int fullDegreeNodes = 0;
+        int highDegreeNodes = 0;
+    }
+
+    // false as soon as the tree can never fit
+    private static boolean visit(CompactTree tree, int node, int depth, Stats stats) {
+        if (++stats.nodes > CELLS || depth >= CELLS) {
+            return false;
+        }
+        stats.depthCounts[depth]++;
+
+        int children = tree.childCount(node);
+        for (int slot = 0; slot < children; slot++) {
+            if (!visit(tree, tree.child(node, slot), depth + 1, stats)) {
+                return false;
+            }
+        }
+
+        int degree = children + (depth > 0 ? 1 : 0);
+        if (degree == 4) stats.fullDegreeNodes++;
+        if (degree >= 3) stats.highDegreeNodes++;
+        return true;
+    }
+
+    // nodes at depth <= k with depth parity of k must fit into cells reachable in k steps
+    private static boolean fitsAroundSomeRoot(int[] depthCounts) {
+        for (int[] within : CELLS_WITHIN) {
+            boolean fits = true;
+            int evenNodes = 0, oddNodes = 0;
+            for (int k = 0; k < CELLS && fits; k++) {
+                if (k % 2 == 0) evenNodes += depthCounts[k];
+                else oddNodes += depthCounts[k];
+                fits = (k % 2 == 0 ? evenNodes : oddNodes) <= within[k];
+            }
+            if (fits) return true;
+        }
+        return false;
+    }
+
+    // ------------------ API ------------------
+    public static boolean isPlausible(DungeonTree root) {
+        return isPlausible(CompactTree.of(root));
+    }
+
+    public static boolean isPlausible(CompactTree tree) {
+        checked.increment();
+        Stats stats = new Stats();
+        boolean plausible = tree.size() <= CELLS
+                && visit(tree, 0, 0, stats)
+                && stats.fullDegreeNodes <= INNER_CELLS
+                && stats.highDegreeNodes <= NON_CORNER_CELLS
+                && fitsAroundSomeRoot(stats.depthCounts);
+        if (!plausible) {
+            rejected.increment();
+        }
+        return plausible;
+    }
+
+    public static long getChecked() {
+        return checked.sum();
+    }
+
+    public static long getRejected() {
+        return rejected.sum();
+    }
+
+    public static void printStats() {
+        long checkedNum = getChecked();
+        long rejectedNum = getRejected();
+        System.out.printf("Layout pre-filter: %d / %d trees rejected (%.1f%%) without backtracking%n",
+                rejectedNum, checkedNum, checkedNum == 0 ? 0.0 : 100.0 * rejectedNum / checkedNum);
+    }
+}
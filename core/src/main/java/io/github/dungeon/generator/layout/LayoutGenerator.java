@@ -2,131 +2,288 @@ package io.github.dungeon.generator.layout;
 
 
 import io.github.dungeon.common.Constants;
-import io.github.dungeon.common.Coord;
 import io.github.dungeon.common.Direction;
+import io.github.dungeon.common.Rng;
+import io.github.dungeon.generator.tree.CompactTree;
 import io.github.dungeon.generator.tree.DungeonTree;
+import io.github.dungeon.generator.tree.NodeTypes;
+import io.github.dungeon.generator.tree.TreeHash;
 
-import java.util.Random;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 public class LayoutGenerator {
 
-    private static final Random RANDOM = new Random();
+    private static final int WIDTH = Constants.MAX_LAYOUT_WIDTH;
+    private static final int HEIGHT = Constants.MAX_LAYOUT_HEIGHT;
+    private static final Direction[] DIRECTIONS = Direction.values();
 
-    static boolean generateLayout(DungeonTree node, LayoutField[][] grid, int x, int y, Direction directionFromParent) {
-        // if spot is not free, fail
-        if (grid[y][x] != null) {
-            return false;
+    // bitboard masks
+    private static final long FULL = WIDTH * HEIGHT == Long.SIZE ? -1L : (1L << (WIDTH * HEIGHT)) - 1;
+    private static final long FIRST_COLUMN = column(0);
+    private static final long LAST_COLUMN = column(WIDTH - 1);
+
+    private static final LongAdder attempts = new LongAdder();
+    private static final LongAdder expandedNodes = new LongAdder();
+
+    static {
+        if (WIDTH * HEIGHT > Long.SIZE) {
+            throw new IllegalStateException("Layout grid doesn't fit into a long bitboard");
         }
-        // Place the current node if the spot is free
-        grid[y][x] = new LayoutField(node.getType(), directionFromParent);
+    }
+
+    private static long column(int x) {
+        long mask = 0L;
+        for (int y = 0; y < HEIGHT; y++) {
+            mask |= 1L << (y * WIDTH + x);
+        }
+        return mask;
+    }
 
-        List<DungeonTree> children = new ArrayList<>(node.getChildren());
-        children.sort((a, b) -> {
-            int diff = b.countNodes() - a.countNodes();  // biggest subtrees first
-            if (Math.abs(diff) > 3) return diff;
-            return RANDOM.nextInt(3) - 1;  // small randomness for similar sizes
-        });
-        return tryPlaceChildren(grid, x, y, children, 0);
+    // all free cells connected to the start cell
+    private static long freeRegion(long occupied, int startBit) {
+        long free = ~occupied & FULL;
+        long region = 1L << startBit;
+        long grown = region;
+        do {
+            region = grown;
+            grown = region
+                    | ((region << 1) & ~FIRST_COLUMN)
+                    | ((region >>> 1) & ~LAST_COLUMN)
+                    | (region << WIDTH)
+                    | (region >>> WIDTH);
+            grown &= free;
+        } while (grown != region);
+        return region;
     }
 
     /**
-     * Exhaustive backtracking with shuffled directions: Try all directions for each child in shuffled order.
-     * childIndex: Current child to place (0 to children.size()-1).
+     * One tree copied from its CompactTree, plus the state of the current placement attempt.
+     * Children are kept in canonical order (by TreeHash), so with the same seed two trees that differ only in
+     * child slots get the same search - what the fitness cache keyed by the canonical hash relies on.
+     * Occupancy is a bitboard (bit y * WIDTH + x), placements are a stack of node indices,
+     * so backtracking is popping the stack down to a mark and nothing is allocated while searching.
      */
-    private static boolean tryPlaceChildren(LayoutField[][] grid, int parentX, int parentY, List<DungeonTree> children, int childIndex) {
-        int width = grid[0].length;
-        int height = grid.length;
+    private static final class Search {
+        final CompactTree tree;
+        final int nodesNum;
+        final int[] children;       // 3 slots per node, -1 when empty
+        final int[] childrenCount;
+        final int[] subtreeSize;
+        final long[] hash;
 
-        if (childIndex == children.size()) {
-            return true;  // All children placed
-        }
+        final int[] childOrder;     // 3 slots per node, filled when the node is placed
+        final int[] directionOrder; // 4 slots per node, shuffled when the node is placed by its parent
+        final int[] directionSpace; // free region size behind each of those directions, -1 if blocked
+        final int[] cell;
+        final int[] parentDirection;  // direction from the node to its parent, -1 for root
+        final int[] placed;
+        final Rng rng;
+        int placedTop = 0;
+        long occupied = 0L;
+        long expanded = 0L;
 
-        DungeonTree child = children.get(childIndex);
-        List<Direction> directions = Direction.shuffledDirections();
+        Search(CompactTree tree, Rng rng) {
+            this.tree = tree;
+            this.rng = rng;
+            nodesNum = tree.size();
+            children = new int[3 * nodesNum];
+            childrenCount = new int[nodesNum];
+            subtreeSize = new int[nodesNum];
+            hash = new long[nodesNum];
+            childOrder = new int[3 * nodesNum];
+            directionOrder = new int[4 * nodesNum];
+            directionSpace = new int[4 * nodesNum];
+            cell = new int[nodesNum];
+            parentDirection = new int[nodesNum];
+            placed = new int[nodesNum];
 
-        for (Direction dir : directions) {
-            int nx = parentX + dir.getDx();
-            int ny = parentY + dir.getDy();
+            // children have bigger indices than parents, so this loop is bottom-up
+            for (int node = nodesNum - 1; node >= 0; node--) {
+                int count = tree.childCount(node);
+                int base = 3 * node;
+                childrenCount[node] = count;
+                subtreeSize[node] = 1;
+                for (int i = 0; i < 3; i++) {
+                    children[base + i] = i < count ? tree.child(node, i) : -1;
+                }
 
-            if (nx >= 0 && nx < width && ny >= 0 && ny < height && grid[ny][nx] == null) {
-                // Try placing this child and recurse to next child
-                if (generateLayout(child, grid, nx, ny, dir.opposite())) {
-                    // Record position for backtracking
-                    grid[parentY][parentX].placedChildrenPositions.add(new Coord(nx, ny));
-                    // Recurse to next child
-                    if (tryPlaceChildren(grid, parentX, parentY, children, childIndex + 1)) {
-                        return true;
+                // insertion sort of up to 3 children by hash
+                for (int i = 0; i < count; i++) {
+                    int child = children[base + i];
+                    subtreeSize[node] += subtreeSize[child];
+                    int j = i;
+                    while (j > 0 && hash[children[base + j - 1]] > hash[child]) {
+                        children[base + j] = children[base + j - 1];
+                        j--;
                     }
-                    // Backtrack this child if subtree failed
-                    backtrackChildPlacement(grid, nx, ny);
-                    grid[parentY][parentX].placedChildrenPositions.remove(new Coord(nx, ny));
+                    children[base + j] = child;
                 }
+                hash[node] = TreeHash.combine(
+                        TreeHash.typeHash(tree.kind(node), tree.risk(node), tree.reward(node)),
+                        count > 0 ? hash[children[base]] : 0,
+                        count > 1 ? hash[children[base + 1]] : 0,
+                        count > 2 ? hash[children[base + 2]] : 0
+                );
             }
         }
 
-        return false;  // No direction worked for this child
+        void reset() {
+            placedTop = 0;
+            occupied = 0L;
+            expanded = 0L;
+        }
+    }
+
+    private static boolean place(Search s, int node, int x, int y, int directionToParent) {
+        int bit = y * WIDTH + x;
+        // if spot is not free, fail
+        if ((s.occupied & (1L << bit)) != 0) {
+            return false;
+        }
+        s.occupied |= 1L << bit;
+        s.cell[node] = bit;
+        s.parentDirection[node] = directionToParent;
+        s.placed[s.placedTop++] = node;
+        s.expanded++;
+
+        // biggest subtrees first, small randomness for similar sizes
+        int count = s.childrenCount[node];
+        int[] order = s.childOrder;
+        int base = 3 * node;
+        for (int i = 0; i < count; i++) {
+            int child = s.children[base + i];
+            int j = i;
+            while (j > 0) {
+                int diff = s.subtreeSize[child] - s.subtreeSize[order[base + j - 1]];
+                int cmp = Math.abs(diff) > 3 ? -diff : s.rng.nextInt(3) - 1;
+                if (cmp >= 0) break;
+                order[base + j] = order[base + j - 1];
+                j--;
+            }
+            order[base + j] = child;
+        }
+        return tryPlaceChildren(s, node, x, y, 0);
     }
 
     /**
-     * Recursively removes the given node's placement and all its descendants' placements.
+     * Backtracking over directions ordered by free space behind them (ties in shuffled order).
+     * A direction is pruned when the free region reachable through it is smaller than the child's subtree,
+     * and the whole branch fails early when the remaining children can't fit into the free cells at all.
+     * childIndex: Current child to place (0 to children count - 1).
      */
-    private static void backtrackChildPlacement(LayoutField[][] grid, int x, int y) {
-        LayoutField field = grid[y][x];
-        if (field == null) {
-            return;
+    private static boolean tryPlaceChildren(Search s, int parent, int parentX, int parentY, int childIndex) {
+        int count = s.childrenCount[parent];
+        if (childIndex == count) {
+            return true;  // All children placed
         }
 
-        for (Coord pos : new ArrayList<>(field.placedChildrenPositions)) {
-            backtrackChildPlacement(grid, (int) pos.getX(), (int) pos.getY());
+        int remaining = 0;
+        for (int i = childIndex; i < count; i++) {
+            remaining += s.subtreeSize[s.childOrder[3 * parent + i]];
+        }
+        if (remaining > Long.bitCount(~s.occupied & FULL)) {
+            return false;
         }
 
-        grid[y][x] = null;
-    }
+        int child = s.childOrder[3 * parent + childIndex];
+        int[] directions = s.directionOrder;
+        int[] space = s.directionSpace;
+        int base = 4 * child;
+        for (int i = 0; i < 4; i++) {
+            int j = s.rng.nextInt(i + 1);
+            directions[base + i] = directions[base + j];
+            directions[base + j] = i;
+        }
+        for (int i = 0; i < 4; i++) {
+            Direction dir = DIRECTIONS[directions[base + i]];
+            int nx = parentX + dir.getDx();
+            int ny = parentY + dir.getDy();
+            int bit = ny * WIDTH + nx;
+            boolean free = nx >= 0 && nx < WIDTH && ny >= 0 && ny < HEIGHT && (s.occupied & (1L << bit)) == 0;
+            int size = free ? Long.bitCount(freeRegion(s.occupied, bit)) : -1;
 
-    private static LayoutField[][] trim(LayoutField[][] layout) {
-        int h = layout.length;
-        int w = layout[0].length;
+            // most space first, stable so equal ones keep the shuffled order
+            int j = i;
+            while (j > 0 && space[base + j - 1] < size) {
+                directions[base + j] = directions[base + j - 1];
+                space[base + j] = space[base + j - 1];
+                j--;
+            }
+            directions[base + j] = dir.ordinal();
+            space[base + j] = size;
+        }
 
-        int minX = w, minY = h;
-        int maxX = -1, maxY = -1;
+        for (int i = 0; i < 4; i++) {
+            if (space[base + i] < s.subtreeSize[child]) {
+                break;  // sorted by space - no other direction has room for this subtree
+            }
+            Direction dir = DIRECTIONS[directions[base + i]];
+            int nx = parentX + dir.getDx();
+            int ny = parentY + dir.getDy();
 
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                if (layout[y][x] != null) {
-                    minX = Math.min(minX, x);
-                    minY = Math.min(minY, y);
-                    maxX = Math.max(maxX, x);
-                    maxY = Math.max(maxY, y);
-                }
+            int mark = s.placedTop;
+            // Try placing this child and recurse to next child
+            if (place(s, child, nx, ny, dir.opposite().ordinal())
+                    && tryPlaceChildren(s, parent, parentX, parentY, childIndex + 1)) {
+                return true;
             }
+            // Backtrack this child and whatever part of its subtree got placed
+            backtrack(s, mark);
         }
 
-        if (maxX == -1) {
-            return new LayoutField[0][0];
-        }
+        return false;  // No direction worked for this child
+    }
 
-        int newW = maxX - minX + 1;
-        int newH = maxY - minY + 1;
+    private static void backtrack(Search s, int mark) {
+        while (s.placedTop > mark) {
+            int node = s.placed[--s.placedTop];
+            s.occupied &= ~(1L << s.cell[node]);
+        }
+    }
 
-        LayoutField[][] trimmed = new LayoutField[newH][newW];
+    private static boolean attempt(Search s) {
+        s.reset();
+        int startX = s.rng.nextInt(WIDTH / 2) + WIDTH / 4;
+        int startY = s.rng.nextInt(HEIGHT / 2) + HEIGHT / 4;
+        boolean placed = s.nodesNum <= WIDTH * HEIGHT && place(s, 0, startX, startY, -1);
+        attempts.increment();
+        expandedNodes.add(s.expanded);
+        return placed;
+    }
 
-        for (int y = 0; y < newH; y++) {
-            System.arraycopy(layout[y + minY], minX, trimmed[y], 0, newW);
+    // fields are only created here, for the placement that succeeded
+    private static LayoutField[][] toTrimmedLayout(Search s) {
+        int minX = WIDTH, minY = HEIGHT;
+        int maxX = -1, maxY = -1;
+        for (int node = 0; node < s.nodesNum; node++) {
+            int x = s.cell[node] % WIDTH;
+            int y = s.cell[node] / WIDTH;
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
         }
 
+        LayoutField[][] trimmed = new LayoutField[maxY - minY + 1][maxX - minX + 1];
+        for (int node = 0; node < s.nodesNum; node++) {
+            int x = s.cell[node] % WIDTH;
+            int y = s.cell[node] / WIDTH;
+            Direction toParent = s.parentDirection[node] < 0 ? null : DIRECTIONS[s.parentDirection[node]];
+            NodeTypes.Base type = s.tree.kind(node).create(s.tree.risk(node), s.tree.reward(node));
+            trimmed[y - minY][x - minX] = new LayoutField(type, toParent);
+        }
         return trimmed;
     }
 
-    public static LayoutField[][] generateLayout(DungeonTree root, int max_retries) throws IllegalArgumentException {
+    public static LayoutField[][] generateLayout(DungeonTree root, int max_retries, Rng rng) throws IllegalArgumentException {
+        return generateLayout(CompactTree.of(root), max_retries, rng);
+    }
+
+    public static LayoutField[][] generateLayout(CompactTree tree, int max_retries, Rng rng) throws IllegalArgumentException {
+        Search search = new Search(tree, rng);
         for (int attempt = 0; attempt < max_retries; attempt++) {
-            int startX = RANDOM.nextInt(Constants.MAX_LAYOUT_WIDTH / 2) + Constants.MAX_LAYOUT_WIDTH / 4;
-            int startY = RANDOM.nextInt(Constants.MAX_LAYOUT_HEIGHT / 2) + Constants.MAX_LAYOUT_HEIGHT / 4;
-            LayoutField[][] grid = new LayoutField[Constants.MAX_LAYOUT_HEIGHT][Constants.MAX_LAYOUT_WIDTH];
-            if (generateLayout(root, grid, startX, startY, null)) {
-                return trim(grid);  // Success with this shuffle and root position
+            if (attempt(search)) {
+                return toTrimmedLayout(search);  // Success with this shuffle and root position
             }
             // If all root positions failed, retry with new shuffles (next attempt)
         }
@@ -134,6 +291,37 @@ public class LayoutGenerator {
         throw new IllegalArgumentException("Failed to generate layout after " + max_retries + " retries with shuffling.");
     }
 
+    // same search as generateLayout, but no layout is built - for checking trees many times
+    public static int countSuccessfulAttempts(DungeonTree root, int attempts, Rng rng) {
+        return countSuccessfulAttempts(CompactTree.of(root), attempts, rng);
+    }
+
+    public static int countSuccessfulAttempts(CompactTree tree, int attempts, Rng rng) {
+        Search search = new Search(tree, rng);
+        int successes = 0;
+        for (int i = 0; i < attempts; i++) {
+            if (attempt(search)) {
+                successes++;
+            }
+        }
+        return successes;
+    }
+
+    // ------------------ stats -----------------------
+    public static long getAttempts() {
+        return attempts.sum();
+    }
+
+    public static long getExpandedNodes() {
+        return expandedNodes.sum();
+    }
+
+    public static void printStats() {
+        long attemptsNum = getAttempts();
+        System.out.printf("Layout search: %d attempts, %.1f nodes expanded per attempt%n",
+                attemptsNum, attemptsNum == 0 ? 0.0 : (double) getExpandedNodes() / attemptsNum);
+    }
+
     //    ------------------ printer -----------------------
     public static void printLayout(LayoutField[][] layout) {
         for (LayoutField[] layoutFields : layout) {
@@ -2,6 +2,7 @@ package io.github.dungeon.generator.room;
 
 import io.github.dungeon.common.Constants;
 import io.github.dungeon.common.Coord;
+import io.github.dungeon.common.Rng;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -45,7 +46,7 @@ public class Room {
         return new Coord((int) centerX, (int) centerY);
     }
 
-    public RoomContents getRoomContents() {
-        return RoomPopulator.populate(this);
+    public RoomContents getRoomContents(Rng rng) {
+        return RoomPopulator.populate(this, rng);
     }
 }
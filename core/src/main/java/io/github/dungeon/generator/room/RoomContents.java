@@ -1,6 +1,7 @@
 package io.github.dungeon.generator.room;
 
 import io.github.dungeon.common.Coord;
+import io.github.dungeon.common.Rng;
 import io.github.dungeon.dungeon_game.danger.DangerType;
 import io.github.dungeon.dungeon_game.reward.RewardType;
 import lombok.Getter;
@@ -8,7 +9,6 @@ import lombok.NoArgsConstructor;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Random;
 
 @Getter
 @NoArgsConstructor
@@ -36,17 +36,15 @@ public class RoomContents {
         rewards.put(position, RewardType.HEALTH_POTION);
     }
 
-    public void addRandomHazard(Coord position) {
-        Random random = new Random();
-        double roll = random.nextDouble();
+    public void addRandomHazard(Coord position, Rng rng) {
+        double roll = rng.nextDouble();
         if (roll < 0.5) addTrap(position);
         else if (roll < 0.75) addEnemyX(position);
         else addEnemyY(position);
     }
 
-    public void addRandomReward(Coord position) {
-        Random random = new Random();
-        double roll = random.nextDouble();
+    public void addRandomReward(Coord position, Rng rng) {
+        double roll = rng.nextDouble();
         if (roll < 0.9) addCoin(position);
         else addPotion(position);
     }
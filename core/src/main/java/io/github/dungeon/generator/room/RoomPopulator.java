@@ -1,6 +1,7 @@
 package io.github.dungeon.generator.room;
 
 import io.github.dungeon.common.Coord;
+import io.github.dungeon.common.Rng;
 import io.github.dungeon.dungeon_game.danger.DangerType;
 
 import java.util.*;
@@ -122,9 +123,8 @@ public class RoomPopulator {
         return y - top;
     }
 
-    private static RoomContents initializeRandomly(Room room) {
+    private static RoomContents initializeRandomly(Room room, Rng rng) {
         RoomContents contents = new RoomContents();
-        Random random = new Random();
 
         Coord end = room.getEnd();
         int left = room.getLeft();
@@ -137,21 +137,21 @@ public class RoomPopulator {
         int rewardCount = Math.round(room.getReward() * rewardMultiplier);
 
         for (int i = 0; i < enemyCount; i++) {
-            Coord pos = randomInteriorCoord(random, left, top, right, bottom);
-            contents.addRandomHazard(pos);
+            Coord pos = randomInteriorCoord(rng, left, top, right, bottom);
+            contents.addRandomHazard(pos, rng);
         }
 
         for (int i = 0; i < rewardCount; i++) {
-            Coord pos = randomInteriorCoord(random, left, top, right, bottom);
-            contents.addRandomReward(pos);
+            Coord pos = randomInteriorCoord(rng, left, top, right, bottom);
+            contents.addRandomReward(pos, rng);
         }
 
         return contents;
     }
 
-    private static Coord randomInteriorCoord(Random random, int left, int top, int right, int bottom) {
-        int x = left + random.nextInt(Math.max(1, right - left));
-        int y = top + random.nextInt(Math.max(1, bottom - top));
+    private static Coord randomInteriorCoord(Rng rng, int left, int top, int right, int bottom) {
+        int x = left + rng.nextInt(Math.max(1, right - left));
+        int y = top + rng.nextInt(Math.max(1, bottom - top));
         return new Coord(x, y);
     }
 
@@ -169,8 +169,8 @@ public class RoomPopulator {
         return avgError + variance;
     }
 
-    public static RoomContents populate(Room room) {
-        RoomContents contents = initializeRandomly(room);
+    public static RoomContents populate(Room room, Rng rng) {
+        RoomContents contents = initializeRandomly(room, rng);
 
         int maxTries = 25;
         float[][] influence = RoomInfluenceMap.compute(room, contents);
@@ -188,13 +188,13 @@ public class RoomPopulator {
 
             RoomContents candidate = contents.deepcopy();
             if (anyMax) {
-                removeRandomHazard(candidate);
+                removeRandomHazard(candidate, rng);
             } else if (avg < room.getDifficulty() - 0.2f) {
-                addRandomHazard(room, candidate);
+                addRandomHazard(room, candidate, rng);
             } else if (avg > room.getDifficulty() + 0.2f) {
-                removeRandomHazard(candidate);
+                removeRandomHazard(candidate, rng);
             } else if (variance > 0.1f) {
-                nudgeRandomHazard(room, candidate);
+                nudgeRandomHazard(room, candidate, rng);
             } else {
                 break;
             }
@@ -234,32 +234,30 @@ public class RoomPopulator {
         return (float) values.stream().mapToDouble(v -> (v - avg) * (v - avg)).average().orElse(0);
     }
 
-    private static void removeRandomHazard(RoomContents contents) {
+    private static void removeRandomHazard(RoomContents contents, Rng rng) {
         Map<Coord, DangerType> enemies = contents.getEnemies();
         if (enemies.isEmpty()) return;
-        Coord toRemove = new ArrayList<>(enemies.keySet()).get((int) (Math.random() * enemies.size()));
+        Coord toRemove = new ArrayList<>(enemies.keySet()).get(rng.nextInt(enemies.size()));
         enemies.remove(toRemove);
     }
 
-    private static void addRandomHazard(Room room, RoomContents contents) {
-        Random random = new Random();
+    private static void addRandomHazard(Room room, RoomContents contents, Rng rng) {
         Coord end = room.getEnd();
-        Coord pos = randomInteriorCoord(random, room.getLeft(), room.getTop(), (int) end.getX(), (int) end.getY());
-        contents.addRandomHazard(pos);
+        Coord pos = randomInteriorCoord(rng, room.getLeft(), room.getTop(), (int) end.getX(), (int) end.getY());
+        contents.addRandomHazard(pos, rng);
     }
 
-    private static void nudgeRandomHazard(Room room, RoomContents contents) {
+    private static void nudgeRandomHazard(Room room, RoomContents contents, Rng rng) {
         Map<Coord, DangerType> enemies = contents.getEnemies();
         if (enemies.isEmpty()) return;
 
-        Random random = new Random();
         List<Coord> keys = new ArrayList<>(enemies.keySet());
-        Coord old = keys.get(random.nextInt(keys.size()));
+        Coord old = keys.get(rng.nextInt(keys.size()));
         DangerType type = enemies.remove(old);
 
         Coord end = room.getEnd();
-        int newX = Math.max(room.getLeft(), Math.min((int) old.getX() + random.nextInt(3) - 1, (int) end.getX() - 1));
-        int newY = Math.max(room.getTop(), Math.min((int) old.getY() + random.nextInt(3) - 1, (int) end.getY() - 1));
+        int newX = Math.max(room.getLeft(), Math.min((int) old.getX() + rng.nextInt(3) - 1, (int) end.getX() - 1));
+        int newY = Math.max(room.getTop(), Math.min((int) old.getY() + rng.nextInt(3) - 1, (int) end.getY() - 1));
         enemies.put(new Coord(newX, newY), type);
     }
 
@@ -269,7 +267,7 @@ public class RoomPopulator {
         room.setEntrance(new Coord(room.getLeft() + 4, room.getTop()));
         room.getExits().add(new Coord(room.getLeft() + 3, room.getEnd().getY() - 1));
 
-        RoomContents contents = populate(room);
+        RoomContents contents = populate(room, new Rng());
 
         System.out.println("Enemies:");
         contents.getEnemies().forEach((coord, type) ->
@@ -0,0 +1,257 @@
+package io.github.dungeon.generator.tree;
+
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A whole archive of levels in one file, read through a memory map: loading a cell is a lookup in the offset
+ * table and a read of its nodes, with no parsing and no copy of the file. Trees are stored as the archive holds
+ * them, so getCompactTree() gives back the exact elite, and getTree() reroots it at Start for the game like the
+ * JSON files are. Archives converted from JSON only have the rerooted trees, which the header flags.
+ * <pre>
+ * header   int magic, int version, int flags, int width, int height       (cell = x * height + y)
+ * offsets  int[width * height], byte offset of the cell's record, 0 if empty
+ * record   float fitness, short node count, then per node in CompactTree order (parents first):
+ *          byte kind, float risk, float reward, short parent (-1 for the root), byte slot in the parent
+ * </pre>
+ * Big-endian, as written by DataOutputStream. A reader is immutable and safe to share between threads.
+ */
+public final class BinaryArchive {
+    public static final String FILE_NAME = "archive.bin";
+    private static final int MAGIC = 0x44474152; // DGAR
+    private static final int VERSION = 2;
+    // the trees are rerooted at Start, not the archive's own
+    private static final int FLAG_REROOTED = 1;
+    private static final int HEADER_BYTES = 5 * Integer.BYTES;
+    private static final int NODE_BYTES = 1 + 2 * Float.BYTES + Short.BYTES + 1;
+    private static final Pattern JSON_NAME = Pattern.compile("x_(\\d+)_y_(\\d+)\\.json");
+
+    private final ByteBuffer buffer;
+    private final boolean rerooted;
+    private final int width;
+    private final int height;
+
+    private BinaryArchive(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a binary archive of this version");
+        }
+        this.buffer = buffer;
+        rerooted = (buffer.getInt(8) & FLAG_REROOTED) != 0;
+        width = buffer.getInt(12);
+        height = buffer.getInt(16);
+    }
+
+    // ------------------ reading ------------------
+    public static BinaryArchive open(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new BinaryArchive(buffer);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open " + file.getAbsolutePath(), e);
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int cellCount() {
+        return width * height;
+    }
+
+    // true if the trees were converted from JSON, so getCompactTree() is rerooted at Start too
+    public boolean isRerooted() {
+        return rerooted;
+    }
+
+    private int offset(int cell) {
+        if (cell < 0 || cell >= cellCount()) {
+            throw new IndexOutOfBoundsException("Index out of bounds for archive");
+        }
+        return buffer.getInt(HEADER_BYTES + Integer.BYTES * cell);
+    }
+
+    public boolean has(int cell) {
+        return offset(cell) != 0;
+    }
+
+    // NaN for an empty cell
+    public float getFitness(int cell) {
+        int offset = offset(cell);
+        return offset == 0 ? Float.NaN : buffer.getFloat(offset);
+    }
+
+    // the tree as stored, null for an empty cell
+    public CompactTree getCompactTree(int cell) {
+        int offset = offset(cell);
+        if (offset == 0) {
+            return null;
+        }
+        int count = buffer.getShort(offset + Float.BYTES);
+        CompactTree tree = CompactTree.withCapacity(count);
+        int position = offset + Float.BYTES + Short.BYTES;
+        for (int node = 0; node < count; node++, position += NODE_BYTES) {
+            NodeTypes.Kind kind = NodeTypes.Kind.fromOrdinal(buffer.get(position));
+            float risk = buffer.getFloat(position + 1);
+            float reward = buffer.getFloat(position + 1 + Float.BYTES);
+            int parent = buffer.getShort(position + 1 + 2 * Float.BYTES);
+            int slot = buffer.get(position + 1 + 2 * Float.BYTES + Short.BYTES);
+            boolean linked = node == 0
+                    ? parent == CompactTree.NO_NODE
+                    : parent >= 0 && parent < node && slot >= 0 && slot < CompactTree.SLOTS;
+            if (!linked) {
+                throw new IllegalStateException("Corrupt tree in cell " + cell);
+            }
+            tree.appendNode(parent, slot, kind, risk, reward);
+        }
+        return tree;
+    }
+
+    // the level the game plays, rerooted at Start; null for an empty cell
+    public DungeonTree getTree(int cell) {
+        CompactTree tree = getCompactTree(cell);
+        if (tree == null) {
+            return null;
+        }
+        DungeonTree root = tree.toDungeonTree();
+        return rerooted ? root : DungeonTreeSerializer.rerootAtStart(root);
+    }
+
+    public DungeonTree getTree(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            throw new IndexOutOfBoundsException("Index out of bounds for archive");
+        }
+        return getTree(x * height + y);
+    }
+
+    // ------------------ writing ------------------
+    // trees[cell] and fitness[cell] for every cell, null for an empty one. rerooted marks trees already rerooted
+    // at Start, e.g. read from JSON, rather than the archive's own
+    public static void write(File file, int width, int height, CompactTree[] trees, float[] fitness, boolean rerooted) {
+        int cellCount = width * height;
+        if (trees.length != cellCount || fitness.length != cellCount) {
+            throw new IllegalArgumentException("Expected " + cellCount + " cells");
+        }
+        int[] offsets = new int[cellCount];
+        long position = HEADER_BYTES + (long) Integer.BYTES * cellCount;
+        for (int cell = 0; cell < cellCount; cell++) {
+            if (trees[cell] == null) continue;
+            if (trees[cell].size() > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("Tree in cell " + cell + " is too big");
+            }
+            offsets[cell] = (int) position;
+            position += Float.BYTES + Short.BYTES + (long) NODE_BYTES * trees[cell].size();
+            if (position > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Archive is too big for one file");
+            }
+        }
+
+        // replaced with a rename, so readers that still map the old file keep a valid mapping
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            try (FileOutputStream stream = new FileOutputStream(temp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(rerooted ? FLAG_REROOTED : 0);
+                out.writeInt(width);
+                out.writeInt(height);
+                for (int offset : offsets) {
+                    out.writeInt(offset);
+                }
+                for (int cell = 0; cell < cellCount; cell++) {
+                    CompactTree tree = trees[cell];
+                    if (tree == null) continue;
+                    out.writeFloat(fitness[cell]);
+                    out.writeShort(tree.size());
+                    for (int node = 0; node < tree.size(); node++) {
+                        out.writeByte(tree.kind(node).ordinal());
+                        out.writeFloat(tree.risk(node));
+                        out.writeFloat(tree.reward(node));
+                        out.writeShort(tree.parent(node));
+                        out.writeByte(tree.slotOf(node));
+                    }
+                }
+                out.flush();
+                // on disk before the rename, so a crash never leaves a renamed but incomplete archive
+                stream.getFD().sync();
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            temp.delete();
+            throw new RuntimeException("Failed to write " + file.getAbsolutePath(), e);
+        }
+    }
+
+    // ------------------ conversion ------------------
+    // reads the x_XX_y_YY.json files of an archive folder into dir/archive.bin; the grid is as big as the highest
+    // coordinates found. JSON only has the rerooted trees, so the archive is flagged as such
+    public static File fromJson(File dir) {
+        File[] files = dir.listFiles((d, name) -> JSON_NAME.matcher(name).matches());
+        if (files == null) {
+            throw new RuntimeException("Cannot list directory: " + dir);
+        }
+        int width = 0;
+        int height = 0;
+        for (File file : files) {
+            Matcher m = JSON_NAME.matcher(file.getName());
+            m.matches();
+            width = Math.max(width, Integer.parseInt(m.group(1)) + 1);
+            height = Math.max(height, Integer.parseInt(m.group(2)) + 1);
+        }
+
+        CompactTree[] trees = new CompactTree[width * height];
+        float[] fitness = new float[width * height];
+        for (File file : files) {
+            Matcher m = JSON_NAME.matcher(file.getName());
+            m.matches();
+            int cell = Integer.parseInt(m.group(1)) * height + Integer.parseInt(m.group(2));
+            try {
+                DungeonTreeSerializer.SavedTree saved = DungeonTreeSerializer.read(file);
+                trees[cell] = CompactTree.of(saved.getTree());
+                fitness[cell] = saved.getFitness();
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read " + file.getAbsolutePath(), e);
+            }
+        }
+        File out = new File(dir, FILE_NAME);
+        write(out, width, height, trees, fitness, true);
+        return out;
+    }
+
+    // writes every cell of the archive as x_XX_y_YY.json into dir
+    public void toJson(File dir) {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new RuntimeException("Cannot create directory: " + dir);
+        }
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                int cell = x * height + y;
+                if (!has(cell)) continue;
+                File out = new File(dir, String.format("x_%02d_y_%02d.json", x, y));
+                try {
+                    DungeonTreeSerializer.writeToFile(getTree(cell), getFitness(cell), out);
+                } catch (IOException e) {
+                    throw new RuntimeException("Failed to write " + out.getAbsolutePath(), e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package io.github.dungeon.generator.tree;
+
+
+import io.github.dungeon.common.Rng;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Structure-of-arrays dungeon tree for the evolutionary loop.
+ * Copies are copy-on-write: they share the arrays with the original until one of them writes, and then copy
+ * only the group it writes to - links (the shape) or values and kinds (the rooms). A room mutation shares the shape
+ * with its parent, and a mutation that turns out to be a no-op costs no arrays at all.
+ * Nodes are indices, the root is 0 and a parent always has a smaller index than its children,
+ * so bottom-up passes are a reverse loop. Children are packed to the front of their node's 3 slots and move
+ * between slots like in DungeonTree, so preorder (and with it the main path) is the same as after converting back.
+ */
+public final class CompactTree {
+    public static final int NO_NODE = -1;
+    static final int SLOTS = 3;
+
+    // 4 ints per node: parent, then 3 child slots
+    private static final int LINKS = SLOTS + 1;
+    // 2 floats per node: risk, reward
+    private static final int VALUES = 2;
+
+    private int size = 0;
+    private int[] links;
+    private float[] values;
+    private byte[] kinds;
+    // set on both sides by copy(); the flag may stay set after the other side copied, costing one extra copy at most
+    private boolean linksShared = false;
+    private boolean typesShared = false;
+
+    private CompactTree(int capacity) {
+        links = new int[LINKS * capacity];
+        values = new float[VALUES * capacity];
+        kinds = new byte[capacity];
+    }
+
+    private CompactTree(CompactTree source) {
+        size = source.size;
+        links = source.links;
+        values = source.values;
+        kinds = source.kinds;
+        linksShared = true;
+        typesShared = true;
+    }
+
+    // ------------------ conversion ------------------
+    public static CompactTree of(DungeonTree root) {
+        CompactTree tree = new CompactTree(root.countNodes());
+        tree.append(root, NO_NODE);
+        return tree;
+    }
+
+    private void append(DungeonTree node, int parent) {
+        NodeTypes.Base type = node.getType();
+        int index = addNode(parent, type.getKind(), type.getRisk(), type.getReward());
+        if (node.getFirstChild() != null) append(node.getFirstChild(), index);
+        if (node.getSecondChild() != null) append(node.getSecondChild(), index);
+        if (node.getThirdChild() != null) append(node.getThirdChild(), index);
+    }
+
+    // node by node for readers of other layouts (see BinaryArchive): nodes in index order, each after its parent
+    static CompactTree withCapacity(int capacity) {
+        return new CompactTree(capacity);
+    }
+
+    void appendNode(int parent, int slot, NodeTypes.Kind kind, float risk, float reward) {
+        int node = size++;
+        int base = LINKS * node;
+        links[base] = parent;
+        links[base + 1] = NO_NODE;
+        links[base + 2] = NO_NODE;
+        links[base + 3] = NO_NODE;
+        setType(node, kind, risk, reward);
+        if (parent != NO_NODE) {
+            links[LINKS * parent + 1 + slot] = node;
+        }
+    }
+
+    // slot of node among its parent's children, NO_NODE for the root
+    int slotOf(int node) {
+        int parent = parent(node);
+        if (parent == NO_NODE) {
+            return NO_NODE;
+        }
+        int slot = 0;
+        while (child(parent, slot) != node) {
+            slot++;
+        }
+        return slot;
+    }
+
+    public DungeonTree toDungeonTree() {
+        DungeonTree[] nodes = new DungeonTree[size];
+        for (int node = 0; node < size; node++) {
+            nodes[node] = new DungeonTree(kind(node).create(risk(node), reward(node)));
+        }
+        for (int node = 0; node < size; node++) {
+            int count = childCount(node);
+            if (count > 0) nodes[node].setFirstChild(nodes[child(node, 0)]);
+            if (count > 1) nodes[node].setSecondChild(nodes[child(node, 1)]);
+            if (count > 2) nodes[node].setThirdChild(nodes[child(node, 2)]);
+        }
+        return nodes[0];
+    }
+
+    // exact copy of the storage, slot order included, so a tree read back mutates exactly like the one written
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < LINKS * size; i++) {
+            out.writeInt(links[i]);
+        }
+        for (int i = 0; i < VALUES * size; i++) {
+            out.writeFloat(values[i]);
+        }
+        out.write(kinds, 0, size);
+    }
+
+    public static CompactTree read(DataInput in) throws IOException {
+        int size = in.readInt();
+        if (size < 1) {
+            throw new IOException("Invalid tree size " + size);
+        }
+        CompactTree tree = new CompactTree(size);
+        tree.size = size;
+        for (int i = 0; i < LINKS * size; i++) {
+            tree.links[i] = in.readInt();
+        }
+        for (int i = 0; i < VALUES * size; i++) {
+            tree.values[i] = in.readFloat();
+        }
+        in.readFully(tree.kinds, 0, size);
+        return tree;
+    }
+
+    // ------------------ queries ------------------
+    public int size() {
+        return size;
+    }
+
+    public int parent(int node) {
+        return links[LINKS * node];
+    }
+
+    public int child(int node, int slot) {
+        return links[LINKS * node + 1 + slot];
+    }
+
+    public int childCount(int node) {
+        int base = LINKS * node + 1;
+        int count = 0;
+        while (count < SLOTS && links[base + count] != NO_NODE) {
+            count++;
+        }
+        return count;
+    }
+
+    public boolean isLeaf(int node) {
+        return links[LINKS * node + 1] == NO_NODE;
+    }
+
+    public NodeTypes.Kind kind(int node) {
+        return NodeTypes.Kind.fromOrdinal(kinds[node]);
+    }
+
+    public float risk(int node) {
+        return values[VALUES * node];
+    }
+
+    public float reward(int node) {
+        return values[VALUES * node + 1];
+    }
+
+    public boolean isStartOrExit(int node) {
+        NodeTypes.Kind kind = kind(node);
+        return kind == NodeTypes.Kind.START || kind == NodeTypes.Kind.EXIT;
+    }
+
+    // ------------------ mutation ------------------
+    // O(1), nothing is copied until one of the trees is modified
+    public CompactTree copy() {
+        linksShared = true;
+        typesShared = true;
+        return new CompactTree(this);
+    }
+
+    public void setType(int node, NodeTypes.Kind kind, float risk, float reward) {
+        ownTypes(size);
+        kinds[node] = (byte) kind.ordinal();
+        values[VALUES * node] = risk;
+        values[VALUES * node + 1] = reward;
+    }
+
+    // same rooms as NodeTypes.getRandomRoom for the same random numbers
+    public void setRandomRoom(int node, Rng rng) {
+        NodeTypes.Kind kind = NodeTypes.randomKind(rng);
+        setType(node, kind, NodeTypes.randomRisk(kind, rng), NodeTypes.randomReward(kind, rng));
+    }
+
+    public void swapTypes(int a, int b) {
+        if (a == b) return;
+        byte kind = kinds[a];
+        float risk = risk(a);
+        float reward = reward(a);
+        setType(a, NodeTypes.Kind.fromOrdinal(kinds[b]), risk(b), reward(b));
+        setType(b, NodeTypes.Kind.fromOrdinal(kind), risk, reward);
+    }
+
+    // returns the new leaf, or NO_NODE if the parent already has 3 children
+    public int addLeaf(int parent, NodeTypes.Kind kind, float risk, float reward) {
+        if (childCount(parent) == SLOTS) {
+            return NO_NODE;
+        }
+        return addNode(parent, kind, risk, reward);
+    }
+
+    // draws no random numbers when the parent is full
+    public int addRandomLeaf(int parent, Rng rng) {
+        if (childCount(parent) == SLOTS) {
+            return NO_NODE;
+        }
+        NodeTypes.Kind kind = NodeTypes.randomKind(rng);
+        return addLeaf(parent, kind, NodeTypes.randomRisk(kind, rng), NodeTypes.randomReward(kind, rng));
+    }
+
+    public int randomChild(int node, Rng rng) {
+        int count = childCount(node);
+        if (count == 0) return NO_NODE;
+        return child(node, rng.nextInt(count));
+    }
+
+    // removes the whole subtree; returns the kind of the removed child, null if there was none
+    public NodeTypes.Kind removeRandomChild(int node, Rng rng) {
+        int count = childCount(node);
+        if (count == 0) return null;
+        return removeChild(node, rng.nextInt(count));
+    }
+
+    // slots move like in DungeonTree.removeChild: the last child fills the hole
+    public NodeTypes.Kind removeChild(int node, int slot) {
+        int base = LINKS * node + 1;
+        int removed = links[base + slot];
+        if (removed == NO_NODE) {
+            return null;
+        }
+        ownLinks(size);
+        ownTypes(size);
+        int last = childCount(node) - 1;
+        links[base + slot] = links[base + last];
+        links[base + last] = NO_NODE;
+
+        NodeTypes.Kind kind = kind(removed);
+        removeSubtree(removed);
+        return kind;
+    }
+
+    // appends a copy of source's subtree as a new child of node; false if node already has 3 children
+    public boolean graft(int node, CompactTree source, int sourceNode) {
+        if (childCount(node) == SLOTS) {
+            return false;
+        }
+        int capacity = size + source.subtreeSize(sourceNode);
+        ownLinks(capacity);
+        ownTypes(capacity);
+        graftSubtree(node, source, sourceNode);
+        return true;
+    }
+
+    private int subtreeSize(int node) {
+        int count = childCount(node);
+        int subtree = 1;
+        for (int slot = 0; slot < count; slot++) {
+            subtree += subtreeSize(child(node, slot));
+        }
+        return subtree;
+    }
+
+    private void graftSubtree(int parent, CompactTree source, int sourceNode) {
+        int index = addNode(parent, source.kind(sourceNode), source.risk(sourceNode), source.reward(sourceNode));
+        int count = source.childCount(sourceNode);
+        for (int slot = 0; slot < count; slot++) {
+            graftSubtree(index, source, source.child(sourceNode, slot));
+        }
+    }
+
+    // ------------------ storage ------------------
+    // before writing links: a private array with room for capacity nodes
+    private void ownLinks(int capacity) {
+        if (linksShared || LINKS * capacity > links.length) {
+            links = Arrays.copyOf(links, LINKS * capacity);
+            linksShared = false;
+        }
+    }
+
+    // before writing values or kinds
+    private void ownTypes(int capacity) {
+        if (typesShared || capacity > kinds.length) {
+            values = Arrays.copyOf(values, VALUES * capacity);
+            kinds = Arrays.copyOf(kinds, capacity);
+            typesShared = false;
+        }
+    }
+
+    private int addNode(int parent, NodeTypes.Kind kind, float risk, float reward) {
+        // a private copy gets room for just the new node - mutations add one; growth of an owned tree doubles
+        int capacity = size + 1;
+        if (!linksShared && !typesShared && capacity > kinds.length) {
+            capacity = Math.max(4, 2 * size);
+        }
+        ownLinks(capacity);
+        ownTypes(capacity);
+        int node = size++;
+        int base = LINKS * node;
+        links[base] = parent;
+        links[base + 1] = NO_NODE;
+        links[base + 2] = NO_NODE;
+        links[base + 3] = NO_NODE;
+        setType(node, kind, risk, reward);
+
+        if (parent != NO_NODE) {
+            int parentBase = LINKS * parent + 1;
+            links[parentBase + childCount(parent)] = node;
+        }
+        return node;
+    }
+
+    // the subtree is already unlinked from its parent; closes the gap keeping the relative order of other nodes
+    private void removeSubtree(int root) {
+        // parents come first, so one forward pass marks the whole subtree
+        int[] newIndex = new int[size];
+        int kept = 0;
+        for (int node = 0; node < size; node++) {
+            int parent = parent(node);
+            boolean removed = node == root || (parent != NO_NODE && newIndex[parent] == NO_NODE);
+            newIndex[node] = removed ? NO_NODE : kept++;
+        }
+
+        for (int node = 0; node < size; node++) {
+            int to = newIndex[node];
+            if (to == NO_NODE) continue;
+            int from = LINKS * node;
+            int base = LINKS * to;
+            int parent = links[from];
+            links[base] = parent == NO_NODE ? NO_NODE : newIndex[parent];
+            for (int slot = 1; slot <= SLOTS; slot++) {
+                int child = links[from + slot];
+                links[base + slot] = child == NO_NODE ? NO_NODE : newIndex[child];
+            }
+            values[VALUES * to] = values[VALUES * node];
+            values[VALUES * to + 1] = values[VALUES * node + 1];
+            kinds[to] = kinds[node];
+        }
+        size = kept;
+    }
+}
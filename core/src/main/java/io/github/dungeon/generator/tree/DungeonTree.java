@@ -1,53 +1,65 @@
 package io.github.dungeon.generator.tree;
 
+import io.github.dungeon.common.Rng;
+import lombok.AccessLevel;
 import lombok.Getter;
-import lombok.Setter;
 
 import java.util.*;
+import java.util.function.Consumer;
 
 
 @Getter
 public class DungeonTree {
 
     // data
-    @Setter
     private NodeTypes.Base type;
     //children
     private DungeonTree firstChild = null;
     private DungeonTree secondChild = null;
     private DungeonTree thirdChild = null;
+    // non-empty slots, kept up to date by every method that links children
+    private int childCount = 0;
     // parent
     private DungeonTree parent = null;
+    // index of the tree this node was last indexed in, see getIndex()
+    @Getter(AccessLevel.NONE)
+    TreeIndex index = null;
+    @Getter(AccessLevel.NONE)
+    int indexId;
 
     // --------------- constructors ---------------
     public DungeonTree(NodeTypes.Base type) {
         this.type = type;
     }
 
-    public DungeonTree(DungeonTree parent) {
-        this.type = NodeTypes.getRandomRoom();
+    public DungeonTree(DungeonTree parent, Rng rng) {
+        this.type = NodeTypes.getRandomRoom(rng);
         this.parent = parent;
     }
 
+    // empty room, the type is set later by generateRandomTree or the deserializer
     public DungeonTree() {
-        this.type = NodeTypes.getRandomRoom();
+        this.type = NodeTypes.EMPTY;
     }
 
     // --------------- generation ---------------
+    // replaces everything below this node, meant for a new root
     public void generateRandomTree(
             int maxDepth,
             float branchingFactor,
-            float branchingFactorMultiplier
+            float branchingFactorMultiplier,
+            Rng rng
     ) {
-        generateSubtree(0, maxDepth, branchingFactor, branchingFactorMultiplier);
+        invalidateIndex();
+        generateSubtree(0, maxDepth, branchingFactor, branchingFactorMultiplier, rng);
 
         // Find the two most distant leaves for Start and Exit
         DungeonTree[] mostDistantLeaves = findMostDistantLeaves();
         if (mostDistantLeaves[0] != null) {
-            mostDistantLeaves[0].type = new NodeTypes.Start();
+            mostDistantLeaves[0].setType(NodeTypes.START);
         }
         if (mostDistantLeaves[1] != null) {
-            mostDistantLeaves[1].type = new NodeTypes.Exit();
+            mostDistantLeaves[1].setType(NodeTypes.EXIT);
         }
     }
 
@@ -56,56 +68,86 @@ public class DungeonTree {
             int currentDepth,
             int maxDepth,
             float branchingFactor,
-            float branchingFactorMultiplier
+            float branchingFactorMultiplier,
+            Rng rng
     ) {
-        type = NodeTypes.getRandomRoom();
+        type = NodeTypes.getRandomRoom(rng);
 
         if (currentDepth >= maxDepth) {
             return;
         }
 
-        double randomValue = Math.random();
-        firstChild = (randomValue < branchingFactor ? new DungeonTree(this) : null);
-        secondChild = (randomValue < branchingFactor * 0.75 ? new DungeonTree(this) : null);
-        thirdChild = (randomValue < branchingFactor * 0.5 ? new DungeonTree(this) : null);
+        double randomValue = rng.nextDouble();
+        firstChild = (randomValue < branchingFactor ? new DungeonTree(this, rng) : null);
+        secondChild = (randomValue < branchingFactor * 0.75 ? new DungeonTree(this, rng) : null);
+        thirdChild = (randomValue < branchingFactor * 0.5 ? new DungeonTree(this, rng) : null);
+        childCount = (firstChild != null ? 1 : 0) + (secondChild != null ? 1 : 0) + (thirdChild != null ? 1 : 0);
         float newBranchingFactor = branchingFactor * branchingFactorMultiplier;
         if (firstChild != null) {
-            firstChild.generateSubtree(currentDepth + 1, maxDepth, newBranchingFactor, branchingFactorMultiplier);
+            firstChild.generateSubtree(currentDepth + 1, maxDepth, newBranchingFactor, branchingFactorMultiplier, rng);
         }
         if (secondChild != null) {
-            secondChild.generateSubtree(currentDepth + 1, maxDepth, newBranchingFactor, branchingFactorMultiplier);
+            secondChild.generateSubtree(currentDepth + 1, maxDepth, newBranchingFactor, branchingFactorMultiplier, rng);
         }
         if (thirdChild != null) {
-            thirdChild.generateSubtree(currentDepth + 1, maxDepth, newBranchingFactor, branchingFactorMultiplier);
+            thirdChild.generateSubtree(currentDepth + 1, maxDepth, newBranchingFactor, branchingFactorMultiplier, rng);
         }
     }
 
+    // O(n): picks the same pair as comparing all leaf pairs in preorder - the first leaf that ends a longest
+    // leaf-to-leaf path, and the first leaf at that distance from it
     private DungeonTree[] findMostDistantLeaves() {
-        List<DungeonTree> leaves = new ArrayList<>();
-        collectLeaves(leaves);
-
-        if (leaves.size() < 2) {
+        TreeIndex index = getIndex();
+        int size = index.size();
+
+        int firstLeaf = -1;
+        int leafCount = 0;
+        for (int i = 0; i < size; i++) {
+            if (index.node(i).isLeaf()) {
+                if (firstLeaf == -1) firstLeaf = i;
+                leafCount++;
+            }
+        }
+        if (leafCount < 2) {
             // If only one leaf or none, return it as both start as root
-            DungeonTree leaf = leaves.isEmpty() ? this : leaves.get(0);
+            DungeonTree leaf = firstLeaf == -1 ? this : index.node(firstLeaf);
             return new DungeonTree[]{this, leaf};
         }
 
-        DungeonTree leaf1 = null;
-        DungeonTree leaf2 = null;
-        int maxDistance = -1;
-
-        for (int i = 0; i < leaves.size(); i++) {
-            for (int j = i + 1; j < leaves.size(); j++) {
-                int distance = getTreeDistance(leaves.get(i), leaves.get(j));
-                if (distance > maxDistance) {
-                    maxDistance = distance;
-                    leaf1 = leaves.get(i);
-                    leaf2 = leaves.get(j);
-                }
+        // double sweep: the leaf farthest from any leaf ends a longest path, and so does the one farthest from it.
+        // In a tree every leaf's farthest leaf is at most as far as one of these two ends
+        int[] fromX = new int[size];
+        int[] fromY = new int[size];
+        int x = farthestLeaf(index.distancesFrom(firstLeaf, fromX), index);
+        index.distancesFrom(x, fromX);
+        int y = farthestLeaf(fromX, index);
+        index.distancesFrom(y, fromY);
+        int diameter = fromX[y];
+
+        int leaf1 = -1;
+        for (int i = 0; i < size && leaf1 == -1; i++) {
+            if (index.node(i).isLeaf() && Math.max(fromX[i], fromY[i]) == diameter) {
+                leaf1 = i;
+            }
+        }
+        int[] fromLeaf1 = index.distancesFrom(leaf1, fromX);
+        int leaf2 = -1;
+        for (int i = leaf1 + 1; i < size && leaf2 == -1; i++) {
+            if (index.node(i).isLeaf() && fromLeaf1[i] == diameter) {
+                leaf2 = i;
             }
         }
+        return new DungeonTree[]{index.node(leaf1), index.node(leaf2)};
+    }
 
-        return new DungeonTree[]{leaf1, leaf2};
+    private static int farthestLeaf(int[] dist, TreeIndex index) {
+        int farthest = -1;
+        for (int i = 0; i < index.size(); i++) {
+            if (index.node(i).isLeaf() && (farthest == -1 || dist[i] > dist[farthest])) {
+                farthest = i;
+            }
+        }
+        return farthest;
     }
 
     public void collectLeaves(List<DungeonTree> leaves) {
@@ -118,30 +160,43 @@ public class DungeonTree {
         if (thirdChild != null) thirdChild.collectLeaves(leaves);
     }
 
+    // O(1) through the index if both nodes are in a valid one, otherwise climbs to the common ancestor; no allocation
     public int getTreeDistance(DungeonTree a, DungeonTree b) {
-        if (a == b) return 0;
-
-        Map<DungeonTree, Integer> distFromA = new HashMap<>();
+        if (a.index != null && a.index == b.index && a.index.isValid()) {
+            return a.index.distance(a, b);
+        }
+        int depthA = a.getDepth();
+        int depthB = b.getDepth();
         int dist = 0;
-        DungeonTree cur = a;
-
-        while (cur != null) {
-            distFromA.put(cur, dist++);
-            cur = cur.getParent();
+        while (depthA > depthB) {
+            a = a.parent;
+            depthA--;
+            dist++;
         }
-
-        cur = b;
-        dist = 0;
-
-        while (cur != null) {
-            if (distFromA.containsKey(cur)) {
-                return dist + distFromA.get(cur);
-            }
+        while (depthB > depthA) {
+            b = b.parent;
+            depthB--;
             dist++;
-            cur = cur.getParent();
         }
+        while (a != b) {
+            a = a.parent;
+            b = b.parent;
+            dist += 2;
+            if (a == null) {
+                // different trees
+                return Integer.MAX_VALUE;
+            }
+        }
+        return dist;
+    }
 
-        return Integer.MAX_VALUE;
+    // edges to the root
+    public int getDepth() {
+        int depth = 0;
+        for (DungeonTree node = parent; node != null; node = node.parent) {
+            depth++;
+        }
+        return depth;
     }
 
     private boolean findPath(DungeonTree current, DungeonTree target, List<DungeonTree> path) {
@@ -159,6 +214,27 @@ public class DungeonTree {
         return false;
     }
 
+    // --------------- index ---------------
+    // index of the whole tree this node is in, built on first use and rebuilt after a mutation
+    public TreeIndex getIndex() {
+        DungeonTree root = this;
+        while (root.parent != null) {
+            root = root.parent;
+        }
+        if (root.index == null || !root.index.isValid()) {
+            new TreeIndex(root);
+        }
+        return root.index;
+    }
+
+    // called by every change of the structure; the removed or replaced nodes keep pointing at the stale index
+    private void invalidateIndex() {
+        if (index != null) {
+            index.invalidate();
+            index = null;
+        }
+    }
+
     // --------------- API ---------------
     public boolean isLeaf() {
         // checking firstChild should be enough, but better safe than sorry
@@ -177,36 +253,75 @@ public class DungeonTree {
         }
     }
 
+    // the index doesn't depend on types, so it stays valid
+    public void setType(NodeTypes.Base type) {
+        this.type = type;
+    }
+
     public void setFirstChild(DungeonTree newChild) {
+        invalidateIndex();
+        childCount += occupied(newChild) - occupied(firstChild);
         this.firstChild = newChild;
         if (firstChild != null) {
+            // it may come from another indexed tree
+            firstChild.invalidateIndex();
             firstChild.parent = this;
         }
     }
 
     public void setSecondChild(DungeonTree newChild) {
+        invalidateIndex();
+        childCount += occupied(newChild) - occupied(secondChild);
         this.secondChild = newChild;
         if (secondChild != null) {
+            secondChild.invalidateIndex();
             secondChild.parent = this;
         }
     }
 
     public void setThirdChild(DungeonTree newChild) {
+        invalidateIndex();
+        childCount += occupied(newChild) - occupied(thirdChild);
         this.thirdChild = newChild;
         if (thirdChild != null) {
+            thirdChild.invalidateIndex();
             thirdChild.parent = this;
         }
     }
 
-    public HashSet<DungeonTree> getChildren() {
-        HashSet<DungeonTree> children = new HashSet<>();
-        if (firstChild != null) children.add(firstChild);
-        if (secondChild != null) children.add(secondChild);
-        if (thirdChild != null) children.add(thirdChild);
-        return children;
+    private static int occupied(DungeonTree child) {
+        return child != null ? 1 : 0;
+    }
+
+    private DungeonTree slot(int slot) {
+        return slot == 0 ? firstChild : slot == 1 ? secondChild : thirdChild;
+    }
+
+    // slot of the i-th child, empty slots skipped
+    private int slotOfChild(int i) {
+        int remaining = i;
+        for (int slot = 0; slot < 3; slot++) {
+            if (slot(slot) != null && remaining-- == 0) {
+                return slot;
+            }
+        }
+        throw new IndexOutOfBoundsException("No child " + i + ", node has " + childCount);
+    }
+
+    // i-th child in slot order, 0 <= i < getChildCount()
+    public DungeonTree getChild(int i) {
+        return slot(slotOfChild(i));
+    }
+
+    // children in slot order, without allocating a collection
+    public void forEachChild(Consumer<DungeonTree> action) {
+        if (firstChild != null) action.accept(firstChild);
+        if (secondChild != null) action.accept(secondChild);
+        if (thirdChild != null) action.accept(thirdChild);
     }
 
     public DungeonTree removeChild(int childIndex) {
+        invalidateIndex();
         DungeonTree removed;
         if (childIndex == 0) {
             removed = firstChild;
@@ -234,32 +349,20 @@ public class DungeonTree {
             System.out.println("Cannot remove - no child at index " + childIndex);
         } else {
             removed.parent = null;
+            childCount--;
         }
         return removed;
     }
 
-    public DungeonTree removeRandomChild() {
-        HashSet<DungeonTree> children = getChildren();
-        if (children.isEmpty()) return null;
-
-        int indexToRemove = (int) (Math.random() * children.size());
-        DungeonTree childToRemove = new ArrayList<>(children).get(indexToRemove);
-
-        if (childToRemove == firstChild) {
-            return removeChild(0);
-        } else if (childToRemove == secondChild) {
-            return removeChild(1);
-        } else {
-            return removeChild(2);
-        }
+    // children are picked in slot order, so the same seed picks the same child
+    public DungeonTree removeRandomChild(Rng rng) {
+        if (childCount == 0) return null;
+        return removeChild(slotOfChild(rng.nextInt(childCount)));
     }
 
-    public DungeonTree getRandomChild() {
-        HashSet<DungeonTree> children = getChildren();
-        if (children.isEmpty()) return null;
-
-        int indexToGet = (int) (Math.random() * children.size());
-        return new ArrayList<>(children).get(indexToGet);
+    public DungeonTree getRandomChild(Rng rng) {
+        if (childCount == 0) return null;
+        return getChild(rng.nextInt(childCount));
     }
 
     public void collectNodes(List<DungeonTree> out) {
@@ -299,9 +402,11 @@ public class DungeonTree {
     }
 
     public int countNodes() {
-        List<DungeonTree> nodes = new ArrayList<>();
-        collectNodes(nodes);
-        return nodes.size();
+        int count = 1;
+        for (int i = 0; i < childCount; i++) {
+            count += getChild(i).countNodes();
+        }
+        return count;
     }
 
     public boolean hasStartAndExitOnce() {
@@ -327,13 +432,14 @@ public class DungeonTree {
     }
 
     public int countChildren() {
-        return getChildren().size();
+        return childCount;
     }
 
     // --------------- copy ---------------
     private DungeonTree deepCopy(DungeonTree parent) {
         DungeonTree copy = new DungeonTree(this.type);
         copy.parent = parent;
+        copy.childCount = childCount;
         if (firstChild != null) {
             copy.firstChild = firstChild.deepCopy(copy);
         }
@@ -1,62 +1,65 @@
 package io.github.dungeon.generator.tree;
 
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
+import io.github.dungeon.common.Rng;
 import io.github.dungeon.generator.layout.LayoutField;
 import io.github.dungeon.generator.layout.LayoutGenerator;
-import lombok.AllArgsConstructor;
-import lombok.Getter;
-import lombok.NoArgsConstructor;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.*;
-
-@AllArgsConstructor
-@Getter
-@NoArgsConstructor
-class EdgeDTO{
-    int from;
-    int to;
-}
-
-
-@AllArgsConstructor
-@Getter
-@NoArgsConstructor
-class NodeDTO{
-        int id;
-        String type;
-        float difficulty;
-        float reward;
-}
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Trees as JSON: {"fitness", "nodes": [{"id", "type", "difficulty", "reward"}], "edges": [{"from", "to"}]},
+ * rerooted at Start. Written and read as a token stream - no intermediate objects, and nodes are rebuilt
+ * in an array indexed by id. Thread safe: the only shared state is the Jackson factory.
+ */
+public class DungeonTreeSerializer {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final JsonFactory JSON = MAPPER.getFactory();
 
+    // a tree read back with the fitness stored next to it
+    public static final class SavedTree {
+        private final DungeonTree tree;
+        private final float fitness;
 
-@AllArgsConstructor
-@Getter
-@NoArgsConstructor
-class DungeonTreeDTO {
-    float fitness;
-    List<NodeDTO> nodes;
-    List<EdgeDTO> edges;
-}
+        SavedTree(DungeonTree tree, float fitness) {
+            this.tree = tree;
+            this.fitness = fitness;
+        }
 
+        public DungeonTree getTree() {
+            return tree;
+        }
 
-public class DungeonTreeSerializer {
+        public float getFitness() {
+            return fitness;
+        }
+    }
 
     private static DungeonTree findStartNode(DungeonTree root) {
-        Queue<DungeonTree> queue = new LinkedList<>();
+        Queue<DungeonTree> queue = new ArrayDeque<>();
         queue.add(root);
         while (!queue.isEmpty()) {
             DungeonTree cur = queue.poll();
             if (cur.getType() instanceof NodeTypes.Start) return cur;
-            queue.addAll(cur.getChildren());
+            cur.forEachChild(queue::add);
         }
         return root; // fallback
     }
 
-    private static DungeonTree rerootAtStart(DungeonTree originalRoot) {
+    // a copy of the tree hanging from its first Start
+    static DungeonTree rerootAtStart(DungeonTree originalRoot) {
         DungeonTree copy = originalRoot.deepCopy();
         DungeonTree start = findStartNode(copy);
 
@@ -86,102 +89,165 @@ public class DungeonTreeSerializer {
         throw new IllegalArgumentException("Node is not a child of the given parent");
     }
 
-    private static DungeonTreeDTO serialize(DungeonTree root, float fitness) {
-        Map<DungeonTree, Integer> ids = new IdentityHashMap<>();
-        List<NodeDTO> nodes = new ArrayList<>();
-        List<EdgeDTO> edges = new ArrayList<>();
-
-        assignIds(root, ids);
-
-        for (Map.Entry<DungeonTree, Integer> entry : ids.entrySet()) {
-            DungeonTree node = entry.getKey();
-            int id = entry.getValue();
-
-            nodes.add(new NodeDTO(
-                    id,
-                    node.getType().getName(),
-                    node.getType().getRisk(),
-                    node.getType().getReward()
-            ));
-
-            if (node.getFirstChild() != null) addEdge(edges, ids, node, node.getFirstChild());
-            if (node.getSecondChild() != null) addEdge(edges, ids, node, node.getSecondChild());
-            if (node.getThirdChild() != null) addEdge(edges, ids, node, node.getThirdChild());
+    // ------------------ writing ------------------
+    // children of node in the tree rerooted at start, without building it: like in rerootAtStart, a node on the path
+    // loses the child towards start to its last child and gets its old parent last, and start gets its old parent
+    // only if it has a free slot. path runs from start to the root; returns the number of children
+    private static int rerootedChildren(DungeonTree node, List<DungeonTree> path, DungeonTree[] out) {
+        int count = node.getChildCount();
+        for (int i = 0; i < count; i++) {
+            out[i] = node.getChild(i);
         }
-
-        return new DungeonTreeDTO(fitness, nodes, edges);
+        int onPath = path.indexOf(node);
+        if (onPath < 0) {
+            return count;
+        }
+        if (onPath > 0) {
+            DungeonTree towardsStart = path.get(onPath - 1);
+            for (int i = 0; i < count; i++) {
+                if (out[i] == towardsStart) {
+                    out[i] = out[--count];
+                    break;
+                }
+            }
+        }
+        if (onPath + 1 < path.size() && count < 3) {
+            out[count++] = path.get(onPath + 1);
+        }
+        return count;
     }
 
-    private static void assignIds(DungeonTree root, Map<DungeonTree, Integer> ids) {
-        Queue<DungeonTree> queue = new ArrayDeque<>();
-        queue.add(root);
-        ids.put(root, 0);
-
-        int nextId = 1;
-
-        while (!queue.isEmpty()) {
-            DungeonTree cur = queue.poll();
+    private static void write(DungeonTree root, float fitness, JsonGenerator json) throws IOException {
+        DungeonTree start = findStartNode(root);
+        List<DungeonTree> path = new ArrayList<>();
+        for (DungeonTree cur = start; cur != null; cur = cur.getParent()) {
+            path.add(cur);
+        }
 
-            for (DungeonTree child : Arrays.asList(
-                    cur.getFirstChild(),
-                    cur.getSecondChild(),
-                    cur.getThirdChild()
-            )) {
-                if (child != null && !ids.containsKey(child)) {
-                    ids.put(child, nextId++);
-                    queue.add(child);
+        // ids in BFS order from start, so every edge goes to the next unused id
+        List<DungeonTree> order = new ArrayList<>();
+        int[] parents = new int[8];
+        DungeonTree[] children = new DungeonTree[3];
+        order.add(start);
+        for (int id = 0; id < order.size(); id++) {
+            int count = rerootedChildren(order.get(id), path, children);
+            for (int i = 0; i < count; i++) {
+                if (order.size() == parents.length) {
+                    parents = Arrays.copyOf(parents, 2 * parents.length);
                 }
+                parents[order.size()] = id;
+                order.add(children[i]);
             }
         }
-    }
 
-    private static void addEdge(
-            List<EdgeDTO> edges,
-            Map<DungeonTree, Integer> ids,
-            DungeonTree from,
-            DungeonTree to
-    ) {
-        if (to != null) {
-            edges.add(new EdgeDTO(
-                    ids.get(from),
-                    ids.get(to)
-            ));
+        json.writeStartObject();
+        json.writeNumberField("fitness", fitness);
+        json.writeArrayFieldStart("nodes");
+        for (int id = 0; id < order.size(); id++) {
+            NodeTypes.Base type = order.get(id).getType();
+            json.writeStartObject();
+            json.writeNumberField("id", id);
+            json.writeStringField("type", type.getName());
+            json.writeNumberField("difficulty", type.getRisk());
+            json.writeNumberField("reward", type.getReward());
+            json.writeEndObject();
         }
+        json.writeEndArray();
+        json.writeArrayFieldStart("edges");
+        for (int id = 1; id < order.size(); id++) {
+            json.writeStartObject();
+            json.writeNumberField("from", parents[id]);
+            json.writeNumberField("to", id);
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+        json.writeEndObject();
     }
 
-    public static DungeonTree deserialize(DungeonTreeDTO dto) {
-
-        Map<Integer, DungeonTree> nodes = new HashMap<>();
-
-        for (NodeDTO n : dto.getNodes()) {
-            DungeonTree treeNode = new DungeonTree();
-            treeNode.setType(NodeTypes.fromString(n.getType(), n.getDifficulty(), n.getReward()));
-            nodes.put(n.getId(), treeNode);
+    // ------------------ reading ------------------
+    // fields may come in any order, unknown ones are skipped
+    private static SavedTree read(JsonParser json) throws IOException {
+        if (json.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Expected a tree object");
         }
-
-        Set<Integer> childrenIds = new HashSet<>();
-
-        for (EdgeDTO e : dto.getEdges()) {
-            DungeonTree from = nodes.get(e.getFrom());
-            DungeonTree to = nodes.get(e.getTo());
-            childrenIds.add(e.getTo());
-            from.addChild(to);
+        float fitness = -1.0f;
+        DungeonTree[] nodes = new DungeonTree[16];
+        int[] edges = new int[32];
+        int edgeCount = 0;
+
+        while (json.nextToken() == JsonToken.FIELD_NAME) {
+            String field = json.getCurrentName();
+            json.nextToken();
+            switch (field) {
+                case "fitness" -> fitness = json.getFloatValue();
+                case "nodes" -> {
+                    while (json.nextToken() == JsonToken.START_OBJECT) {
+                        int id = -1;
+                        String type = null;
+                        float difficulty = 0f;
+                        float reward = 0f;
+                        while (json.nextToken() == JsonToken.FIELD_NAME) {
+                            String name = json.getCurrentName();
+                            json.nextToken();
+                            switch (name) {
+                                case "id" -> id = json.getIntValue();
+                                case "type" -> type = json.getText();
+                                case "difficulty" -> difficulty = json.getFloatValue();
+                                case "reward" -> reward = json.getFloatValue();
+                                default -> json.skipChildren();
+                            }
+                        }
+                        if (id < 0 || type == null) {
+                            throw new IOException("Node without id or type");
+                        }
+                        if (id >= nodes.length) {
+                            nodes = Arrays.copyOf(nodes, Math.max(id + 1, 2 * nodes.length));
+                        }
+                        nodes[id] = new DungeonTree(NodeTypes.fromString(type, difficulty, reward));
+                    }
+                }
+                case "edges" -> {
+                    while (json.nextToken() == JsonToken.START_OBJECT) {
+                        if (edgeCount + 2 > edges.length) {
+                            edges = Arrays.copyOf(edges, 2 * edges.length);
+                        }
+                        edges[edgeCount] = -1;
+                        edges[edgeCount + 1] = -1;
+                        while (json.nextToken() == JsonToken.FIELD_NAME) {
+                            String name = json.getCurrentName();
+                            json.nextToken();
+                            switch (name) {
+                                case "from" -> edges[edgeCount] = json.getIntValue();
+                                case "to" -> edges[edgeCount + 1] = json.getIntValue();
+                                default -> json.skipChildren();
+                            }
+                        }
+                        edgeCount += 2;
+                    }
+                }
+                default -> json.skipChildren();
+            }
         }
 
-        DungeonTree root = null;
-
-        for (Integer id : nodes.keySet()) {
-            if (!childrenIds.contains(id)) {
-                root = nodes.get(id);
-                break;
+        // children are added in the order of the edges, like they were written
+        boolean[] hasParent = new boolean[nodes.length];
+        for (int i = 0; i < edgeCount; i += 2) {
+            int from = edges[i];
+            int to = edges[i + 1];
+            if (from < 0 || from >= nodes.length || nodes[from] == null
+                    || to < 0 || to >= nodes.length || nodes[to] == null) {
+                throw new IOException("Edge " + from + " -> " + to + " between unknown nodes");
             }
+            nodes[from].addChild(nodes[to]);
+            hasParent[to] = true;
         }
 
-        if (root == null) {
-            throw new IllegalStateException("No root node found in DungeonTreeDTO");
+        for (int id = 0; id < nodes.length; id++) {
+            if (nodes[id] != null && !hasParent[id]) {
+                return new SavedTree(nodes[id], fitness);
+            }
         }
-
-        return root;
+        throw new IllegalStateException("No root node found in tree file");
     }
 
     // ------------------ API ------------------
@@ -190,23 +256,27 @@ public class DungeonTreeSerializer {
     }
 
     public static void writeToFile(DungeonTree tree, float fitness, File file) throws IOException {
-        ObjectMapper mapper = new ObjectMapper()
-            .enable(SerializationFeature.INDENT_OUTPUT);
-        DungeonTree rerooted = rerootAtStart(tree);
-        mapper.writeValue(file, serialize(rerooted, fitness));
+        try (JsonGenerator json = JSON.createGenerator(file, JsonEncoding.UTF8)) {
+            json.useDefaultPrettyPrinter();
+            write(tree, fitness, json);
+        }
     }
 
     public static DungeonTree readFromFile(File file) throws IOException {
-        ObjectMapper mapper = new ObjectMapper();
-        DungeonTreeDTO dto = mapper.readValue(file, DungeonTreeDTO.class);
+        return read(file).getTree();
+    }
 
-        return deserialize(dto);
+    public static SavedTree read(File file) throws IOException {
+        try (JsonParser json = JSON.createParser(file)) {
+            return read(json);
+        }
     }
 
 //    ------------------- test ------------------
 public static void main(String[] args) throws Exception {
+    Rng rng = new Rng();
     DungeonTree original = new DungeonTree();
-    original.generateRandomTree(4, 0.6f, 0.9f);
+    original.generateRandomTree(4, 0.6f, 0.9f, rng);
 
     File file = new File("levels/dungeon_tree.json");
 
@@ -222,8 +292,8 @@ public static void main(String[] args) throws Exception {
     System.out.println("Loaded BFS:");
     loaded.printBFS();
 
-    LayoutField[][] l1 = LayoutGenerator.generateLayout(original, 3);
-    LayoutField[][] l2 = LayoutGenerator.generateLayout(loaded, 3);
+    LayoutField[][] l1 = LayoutGenerator.generateLayout(original, 3, rng);
+    LayoutField[][] l2 = LayoutGenerator.generateLayout(loaded, 3, rng);
 
     System.out.println();
     LayoutGenerator.printLayout(l1);
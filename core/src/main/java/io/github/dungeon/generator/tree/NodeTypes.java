@@ -1,85 +1,186 @@
 package io.github.dungeon.generator.tree;
 
-import lombok.AllArgsConstructor;
+import io.github.dungeon.common.Rng;
 import lombok.Getter;
 
 @Getter
 public class NodeTypes {
 
+    // rooms without values are shared by every node that has them - types are immutable
+    public static final Base EMPTY = new Empty();
+    public static final Base START = new Start();
+    public static final Base EXIT = new Exit();
+
     // todo: distinguish more types, like burning room, iron maidens room, potions lab etc. with its constraints.
     public static Base fromString(String type, float difficulty, float reward) {
         switch (type) {
             case "Empty":
-                return new Empty();
+                return Kind.EMPTY.create(difficulty, reward);
             case "Start":
-                return new Start();
+                return Kind.START.create(difficulty, reward);
             case "Exit":
-                return new Exit();
+                return Kind.EXIT.create(difficulty, reward);
             case "Enemies":
-                return new Enemies(difficulty);
+                return Kind.ENEMIES.create(difficulty, reward);
             case "Treasure":
-                return new Treasure(reward);
+                return Kind.TREASURE.create(difficulty, reward);
             case "EnemyAndTreasure":
-                return new EnemyAndTreasure(difficulty, reward);
+                return Kind.ENEMY_AND_TREASURE.create(difficulty, reward);
             default:
                 throw new IllegalArgumentException("Unknown node type: " + type);
         }
     }
 
-    public static Base getRandomRoom() {
-        double r = Math.random();
+    public static Base getRandomRoom(Rng rng) {
+        Kind kind = randomKind(rng);
+        return kind.create(randomRisk(kind, rng), randomReward(kind, rng));
+    }
+
+    // getRandomRoom split into parts, for trees that store rooms as kind + risk + reward;
+    // draw them in this order to get the same rooms as getRandomRoom
+    public static Kind randomKind(Rng rng) {
+        double r = rng.nextDouble();
         if (r < 0.25) {
-            return new Empty();
+            return Kind.EMPTY;
         } else if (r < 0.5) {
-            return new Enemies((float) (Math.random()));
+            return Kind.ENEMIES;
         } else if (r < 0.75) {
-            return new EnemyAndTreasure((float) (Math.random()), (float) (Math.random()));
+            return Kind.ENEMY_AND_TREASURE;
         } else {
-            return new Treasure((float) (Math.random()));
+            return Kind.TREASURE;
+        }
+    }
+
+    public static float randomRisk(Kind kind, Rng rng) {
+        return kind.hasRisk() ? (float) rng.nextDouble() : 0f;
+    }
+
+    public static float randomReward(Kind kind, Rng rng) {
+        return kind.hasReward() ? (float) rng.nextDouble() : 0f;
+    }
+
+    // room type without its values; the ordinal is a dense index, e.g. for type histograms
+    public enum Kind {
+        EMPTY("Empty", ".", false, false),
+        START("Start", "S", false, false),
+        EXIT("Exit", "X", false, false),
+        ENEMIES("Enemies", "E", true, false),
+        TREASURE("Treasure", "T", false, true),
+        ENEMY_AND_TREASURE("EnemyAndTreasure", "B", true, true);
+
+        private static final Kind[] VALUES = values();
+
+        private final String typeName;
+        private final String shortName;
+        // typeName.hashCode(), kept so structural hashing doesn't touch the string
+        private final int nameHash;
+        private final boolean risk;
+        private final boolean reward;
+
+        Kind(String typeName, String shortName, boolean risk, boolean reward) {
+            this.typeName = typeName;
+            this.shortName = shortName;
+            this.nameHash = typeName.hashCode();
+            this.risk = risk;
+            this.reward = reward;
+        }
+
+        public String getTypeName() {
+            return typeName;
+        }
+
+        public String getShortName() {
+            return shortName;
+        }
+
+        public int getNameHash() {
+            return nameHash;
+        }
+
+        public boolean hasRisk() {
+            return risk;
+        }
+
+        public boolean hasReward() {
+            return reward;
+        }
+
+        public static Kind fromOrdinal(int ordinal) {
+            return VALUES[ordinal];
+        }
+
+        // shared instance for the kinds without values, the values a kind doesn't use are ignored
+        public Base create(float risk, float reward) {
+            switch (this) {
+                case EMPTY:
+                    return NodeTypes.EMPTY;
+                case START:
+                    return NodeTypes.START;
+                case EXIT:
+                    return NodeTypes.EXIT;
+                case ENEMIES:
+                    return new Enemies(risk);
+                case TREASURE:
+                    return new Treasure(reward);
+                default:
+                    return new EnemyAndTreasure(risk, reward);
+            }
         }
     }
 
-    @AllArgsConstructor
     @Getter
     public static abstract class Base {
-        float risk, reward;  // normalised [0,1]
-        String name;
-        String shortName;
+        private final float risk, reward;  // normalised [0,1]
+        private final Kind kind;
+
+        Base(float risk, float reward, Kind kind) {
+            this.risk = risk;
+            this.reward = reward;
+            this.kind = kind;
+        }
+
+        public String getName() {
+            return kind.getTypeName();
+        }
+
+        public String getShortName() {
+            return kind.getShortName();
+        }
     }
 
-    public static class Empty extends Base {
-        Empty() {
-            super(0, 0, "Empty", ".");
+    public static final class Empty extends Base {
+        private Empty() {
+            super(0, 0, Kind.EMPTY);
         }
     }
 
-    public static class Start extends Base {
-        public Start() {
-            super(0, 0, "Start", "S");
+    public static final class Start extends Base {
+        private Start() {
+            super(0, 0, Kind.START);
         }
     }
 
-    public static class Exit extends Base {
-        public Exit() {
-            super(0, 0, "Exit", "X");
+    public static final class Exit extends Base {
+        private Exit() {
+            super(0, 0, Kind.EXIT);
         }
     }
 
-    public static class Enemies extends Base {
+    public static final class Enemies extends Base {
         Enemies(float difficulty) {
-            super(difficulty, 0, "Enemies", "E");
+            super(difficulty, 0, Kind.ENEMIES);
         }
     }
 
-    public static class Treasure extends Base {
+    public static final class Treasure extends Base {
         Treasure(float reward) {
-            super(0, reward, "Treasure", "T");
+            super(0, reward, Kind.TREASURE);
         }
     }
 
-    public static class EnemyAndTreasure extends Base {
+    public static final class EnemyAndTreasure extends Base {
         EnemyAndTreasure(float difficulty, float reward) {
-            super(difficulty, reward, "EnemyAndTreasure", "B");
+            super(difficulty, reward, Kind.ENEMY_AND_TREASURE);
         }
     }
 }
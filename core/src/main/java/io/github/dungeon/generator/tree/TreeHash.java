@@ -0,0 +1,38 @@
+package io.github.dungeon.generator.tree;
+
+
+/**
+ * Canonical structural hash of a tree: room types plus shape, with children combined in sorted order,
+ * so two trees that differ only in which child slots are used hash the same.
+ */
+public final class TreeHash {
+
+    // splitmix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    public static long typeHash(NodeTypes.Base type) {
+        return typeHash(type.getKind(), type.getRisk(), type.getReward());
+    }
+
+    public static long typeHash(NodeTypes.Kind kind, float risk, float reward) {
+        long h = kind.getNameHash();
+        h = mix(h * 31 + Float.floatToIntBits(risk));
+        return mix(h * 31 + Float.floatToIntBits(reward));
+    }
+
+    // a missing child is 0
+    public static long combine(long h, long a, long b, long c) {
+        long t;
+        if (a > b) { t = a; a = b; b = t; }
+        if (b > c) { t = b; b = c; c = t; }
+        if (a > b) { t = a; a = b; b = t; }
+
+        h = mix(h * 31 + a);
+        h = mix(h * 31 + b);
+        return mix(h * 31 + c);
+    }
+}
@@ -0,0 +1,137 @@
+package io.github.dungeon.generator.tree;
+
+
+import java.util.Arrays;
+
+/**
+ * Read-only index of a whole DungeonTree: nodes numbered in preorder with their depths, plus an Euler tour
+ * with a sparse table, so depth, LCA and distance queries are O(1) and allocate nothing.
+ * Built by DungeonTree.getIndex(). Changing the children of any indexed node invalidates it, and the next
+ * getIndex() builds a new one; node types aren't indexed, so setting them keeps it valid. Not thread safe, like DungeonTree itself.
+ */
+public final class TreeIndex {
+    private final DungeonTree[] nodes;
+    private final int[] parents;
+    private final int[] depths;
+    // Euler tour of node ids, the first visit of every node, and sparse[k][i] = shallowest node in tour[i, i + 2^k)
+    private final int[] tour;
+    private final int[] firstVisit;
+    private final int[][] sparse;
+    private boolean valid = true;
+
+    TreeIndex(DungeonTree root) {
+        if (root.getParent() != null) {
+            throw new IllegalArgumentException("Only a root can be indexed");
+        }
+        int size = root.countNodes();
+        nodes = new DungeonTree[size];
+        parents = new int[size];
+        depths = new int[size];
+        tour = new int[2 * size - 1];
+        firstVisit = new int[size];
+        visit(root, -1, 0, new int[2]);
+
+        int levels = 32 - Integer.numberOfLeadingZeros(tour.length);
+        sparse = new int[levels][];
+        sparse[0] = tour;
+        for (int k = 1; k < levels; k++) {
+            int half = 1 << (k - 1);
+            int[] previous = sparse[k - 1];
+            int[] level = new int[tour.length - (1 << k) + 1];
+            for (int i = 0; i < level.length; i++) {
+                level[i] = shallower(previous[i], previous[i + half]);
+            }
+            sparse[k] = level;
+        }
+    }
+
+    // counters[0] is the next preorder id, counters[1] the next tour position
+    private void visit(DungeonTree node, int parent, int depth, int[] counters) {
+        int id = counters[0]++;
+        nodes[id] = node;
+        parents[id] = parent;
+        depths[id] = depth;
+        node.index = this;
+        node.indexId = id;
+
+        firstVisit[id] = counters[1];
+        tour[counters[1]++] = id;
+        for (int i = 0; i < node.getChildCount(); i++) {
+            visit(node.getChild(i), id, depth + 1, counters);
+            tour[counters[1]++] = id;
+        }
+    }
+
+    private int shallower(int a, int b) {
+        return depths[a] <= depths[b] ? a : b;
+    }
+
+    void invalidate() {
+        valid = false;
+    }
+
+    // ------------------ API ------------------
+    public boolean isValid() {
+        return valid;
+    }
+
+    public int size() {
+        return nodes.length;
+    }
+
+    // preorder id, the root is 0 and parents come before their children
+    public int id(DungeonTree node) {
+        if (!valid) {
+            throw new IllegalStateException("Tree changed since it was indexed");
+        }
+        if (node.index != this) {
+            throw new IllegalArgumentException("Node is not part of the indexed tree");
+        }
+        return node.indexId;
+    }
+
+    public DungeonTree node(int id) {
+        return nodes[id];
+    }
+
+    // -1 for the root
+    public int parent(int id) {
+        return parents[id];
+    }
+
+    public int depth(DungeonTree node) {
+        return depths[id(node)];
+    }
+
+    public DungeonTree lca(DungeonTree a, DungeonTree b) {
+        return nodes[lca(id(a), id(b))];
+    }
+
+    public int distance(DungeonTree a, DungeonTree b) {
+        int idA = id(a);
+        int idB = id(b);
+        return depths[idA] + depths[idB] - 2 * depths[lca(idA, idB)];
+    }
+
+    private int lca(int a, int b) {
+        int from = Math.min(firstVisit[a], firstVisit[b]);
+        int to = Math.max(firstVisit[a], firstVisit[b]) + 1;
+        int k = 31 - Integer.numberOfLeadingZeros(to - from);
+        return shallower(sparse[k][from], sparse[k][to - (1 << k)]);
+    }
+
+    // distance from source to every node by id: exact on the source's ancestors, then one step past the parent
+    public int[] distancesFrom(int source, int[] dist) {
+        Arrays.fill(dist, 0, nodes.length, -1);
+        int d = 0;
+        for (int node = source; node != -1; node = parents[node]) {
+            dist[node] = d++;
+        }
+        for (int node = 0; node < nodes.length; node++) {
+            if (dist[node] == -1) {
+                dist[node] = dist[parents[node]] + 1;
+            }
+        }
+        return dist;
+    }
+}
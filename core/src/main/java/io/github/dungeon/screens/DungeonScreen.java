@@ -4,25 +4,93 @@ import com.badlogic.gdx.*;
 import com.badlogic.gdx.graphics.GL20;
 import com.badlogic.gdx.math.MathUtils;
 import io.github.dungeon.common.Action;
+import io.github.dungeon.common.Constants;
 import io.github.dungeon.dungeon_game.DungeonGame;
 import io.github.dungeon.generator.GenerationUtils;
+import io.github.dungeon.generator.LevelQueue;
 import io.github.dungeon.generator.grid.GridDefinition;
 import io.github.dungeon.render.DungeonRenderer;
 import io.github.dungeon.render.UIRenderer;
 
 public class DungeonScreen implements Screen, InputProcessor {
-
-    private final DungeonGame game;
-    private final UIRenderer uiRenderer;
-    private final DungeonRenderer renderer;
+    private static final String LEVELS_DIR = "202604111244";
+    private static final int READY_LEVELS = 3;
+    private static final int LEVEL_WORKERS = 1;
+    // random tree levels, played once the queue can't deliver any, e.g. when LEVELS_DIR doesn't exist
+    private static final int FALLBACK_DEPTH = Constants.MAX_DEPTH;
+    private static final float FALLBACK_BRANCHING = 0.6f;
+    private static final float FALLBACK_BRANCHING_MULT = 0.9f;
+    // a random tree fails its layout about one time in four
+    private static final int FALLBACK_ATTEMPTS = 5;
+    private static final String TAG = "DungeonScreen";
+
+    // generates the next levels in the background while one is played
+    private final LevelQueue levels = LevelQueue.fromFolder(LEVELS_DIR, READY_LEVELS, LEVEL_WORKERS);
+    private boolean levelsFailed = false;
+    // null while waiting for the queue; the screen stays blank meanwhile
+    private DungeonGame game;
+    private UIRenderer uiRenderer;
+    private DungeonRenderer renderer;
     private Action currentAction = Action.STAY;
 
     public DungeonScreen(Game gdxGame) {
-        GridDefinition def = GenerationUtils.generateFromFile("202604111244", 8, 4);
+        Gdx.input.setInputProcessor(this);
+    }
+
+    // never waits for the queue, so the render thread doesn't stall while a level is generated
+    private boolean hasLevel() {
+        if (game != null) {
+            return true;
+        }
+        GridDefinition def = nextDefinition();
+        if (def == null) {
+            return false;
+        }
         this.game = new DungeonGame(def);
         this.renderer = new DungeonRenderer(game);
         this.uiRenderer = new UIRenderer(game.getPlayer());
-        Gdx.input.setInputProcessor(this);
+        renderer.getViewport().update(Gdx.graphics.getWidth(), Gdx.graphics.getHeight(), true);
+        return true;
+    }
+
+    // a ready level from the queue, null while it's generating; once the queue has failed, a random level
+    // generated here instead, as nothing should be thrown out of render()
+    private GridDefinition nextDefinition() {
+        if (!levelsFailed) {
+            try {
+                return levels.poll();
+            } catch (RuntimeException e) {
+                levelsFailed = true;
+                Gdx.app.error(TAG, "No levels from " + LEVELS_DIR + ", playing random levels instead", e);
+            }
+        }
+        RuntimeException failure = null;
+        for (int attempt = 0; attempt < FALLBACK_ATTEMPTS; attempt++) {
+            try {
+                return GenerationUtils.generateRandomTree(FALLBACK_DEPTH, FALLBACK_BRANCHING, FALLBACK_BRANCHING_MULT);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+        // tried again on the next frame
+        Gdx.app.error(TAG, "Failed to generate a random level", failure);
+        return null;
+    }
+
+    private void unloadLevel() {
+        if (game == null) {
+            return;
+        }
+        renderer.dispose();
+        uiRenderer.dispose();
+        game = null;
+        renderer = null;
+        uiRenderer = null;
+    }
+
+    // the next ready level is picked up by render()
+    private void nextLevel() {
+        unloadLevel();
     }
 
     @Override
@@ -33,6 +101,9 @@ public class DungeonScreen implements Screen, InputProcessor {
     @Override
     public void render(float delta) {
         Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT);
+        if (!hasLevel()) {
+            return;
+        }
         if (currentAction != Action.STAY) {
             game.move(currentAction);
         } else {
@@ -45,6 +116,7 @@ public class DungeonScreen implements Screen, InputProcessor {
 
     @Override
     public void resize(int width, int height) {
+        if (renderer == null) return;
         renderer.getViewport().update(width, height, true);
     }
 
@@ -66,7 +138,8 @@ public class DungeonScreen implements Screen, InputProcessor {
 
     @Override
     public void dispose() {
-        renderer.dispose();
+        levels.close();
+        unloadLevel();
     }
 
     @Override
@@ -75,6 +148,7 @@ public class DungeonScreen implements Screen, InputProcessor {
         if (keycode == Input.Keys.W || keycode == Input.Keys.UP) currentAction = Action.DOWN;
         if (keycode == Input.Keys.A || keycode == Input.Keys.LEFT) currentAction = Action.LEFT;
         if (keycode == Input.Keys.D || keycode == Input.Keys.RIGHT) currentAction = Action.RIGHT;
+        if (keycode == Input.Keys.N) nextLevel();
         if (keycode == Input.Keys.ESCAPE) Gdx.app.exit();
         return true;
     }
@@ -118,6 +192,7 @@ public class DungeonScreen implements Screen, InputProcessor {
 
     @Override
     public boolean scrolled(float amountX, float amountY) {
+        if (renderer == null) return false;
         float zoomSpeed = 0.1f;
         renderer.getCamera().zoom += amountY * zoomSpeed;
         renderer.getCamera().zoom = MathUtils.clamp(renderer.getCamera().zoom, 0.5f, 5f);